@@ -1,8 +1,10 @@
 package com.fasterxml.sort;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 public abstract class DataReader<T>
+    implements Closeable
 {
     /**
      * Method for reading the next data item; will return
@@ -22,5 +24,6 @@ public abstract class DataReader<T>
      * that it is ok to call close multiple times. Reader may also
      * close underlying resources as soon as it has reached end of input.
      */
+    @Override
     public abstract void close() throws IOException;
 }
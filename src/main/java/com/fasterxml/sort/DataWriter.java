@@ -1,10 +1,13 @@
 package com.fasterxml.sort;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 public abstract class DataWriter<T>
+    implements Closeable
 {
     public abstract void writeEntry(T item) throws IOException;
 
+    @Override
     public abstract void close() throws IOException;
 }
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -65,31 +66,51 @@ public class IteratingSorter<T> extends SorterBase<T> implements Closeable
         _currentSortRound = -1;
 
         Iterator<T> iterator = null;
+        PresortBuffer<T> presortBuffer = _createPresortBuffer(_config.getMaxMemoryUsage());
         try {
-            Object[] items = _readMax(inputReader, buffer, _config.getMaxMemoryUsage(), null);
-            if (_checkForCancel()) {
-                close();
-                return null;
+            // set if more data than memory-buffer-full
+            List<File> presorted = null;
+            if (presortBuffer != null) {
+                T next = _fill(inputReader, presortBuffer, null);
+                if (_checkForCancel()) {
+                    close();
+                    return null;
+                }
+                presortBuffer.sort();
+                if (next == null) {
+                    iterator = presortBuffer.iterator();
+                } else {
+                    presorted = new ArrayList<File>();
+                    presorted.add(_writePresorted(presortBuffer));
+                    ++_presortFileCount;
+                    _presort(inputReader, presortBuffer, next, presorted);
+                }
+            } else {
+                Object[] items = _readMax(inputReader, buffer, _config.getMaxMemoryUsage(), null);
+                if (_checkForCancel()) {
+                    close();
+                    return null;
+                }
+                Arrays.sort(items, _rawComparator());
+                T next = inputReader.readNext();
+                /* Minor optimization: in case all entries might fit in
+                 * in-memory sort buffer, avoid writing intermediate file
+                 * and just write results directly.
+                 */
+                if (next == null) {
+                    iterator = new CastingIterator<T>(Arrays.asList(items).iterator());
+                } else { // but if more data than memory-buffer-full, do it right:
+                    presorted = new ArrayList<File>();
+                    presorted.add(_writePresorted(items));
+                    ++_presortFileCount;
+                    items = null; // it's a big array, clear refs as early as possible
+                    _presort(inputReader, buffer, next, presorted);
+                }
             }
-            Arrays.sort(items, _rawComparator());
-            T next = inputReader.readNext();
-            /* Minor optimization: in case all entries might fit in
-             * in-memory sort buffer, avoid writing intermediate file
-             * and just write results directly.
-             */
-            if (next == null) {
-                inputClosed = true;
-                inputReader.close();
-                _phase = Phase.SORTING;
-                iterator = new CastingIterator<T>(Arrays.asList(items).iterator());
-            } else { // but if more data than memory-buffer-full, do it right:
-                List<File> presorted = new ArrayList<File>();
-                presorted.add(_writePresorted(items));
-                items = null; // it's a big array, clear refs as early as possible
-                _presort(inputReader, buffer, next, presorted);
-                inputClosed = true;
-                inputReader.close();
-                _phase = Phase.SORTING;
+            inputClosed = true;
+            inputReader.close();
+            _phase = Phase.SORTING;
+            if (presorted != null) {
                 if (_checkForCancel(presorted)) {
                     close();
                     return null;
@@ -116,6 +137,45 @@ public class IteratingSorter<T> extends SorterBase<T> implements Closeable
     }
 
 
+    /**
+     * Method that will merge runs that have already been sorted and written
+     * using {@link DataWriterFactory} compatible with the one configured for this
+     * sorter, returning an Iterator over the final merge round, so that results
+     * can be consumed as they are merged instead of being written to a file first.
+     * Intermediate rounds (if more runs than merge factor) are done before returning.
+     * Sorter must be closed once the Iterator is no longer needed, to delete the
+     * files being merged.
+     *
+     * The returned Iterator will throw {@link IterableSorterException} if any
+     * IOException is encountered during calls of {@link Iterator#next()}.
+     *
+     * @return Iterator over merged results; null if sorting was cancelled
+     */
+    public Iterator<T> mergePresorted(List<File> presorted)
+        throws IOException
+    {
+        close();
+        _phase = Phase.SORTING;
+        _presortFileCount = presorted.size();
+        if (_checkForCancel(presorted)) {
+            return null;
+        }
+        Iterator<T> iterator;
+        if (presorted.isEmpty()) {
+            iterator = Collections.<T>emptyList().iterator();
+        } else {
+            _mergerInputs = merge(presorted);
+            _merger = _createMergeReader(_mergerInputs);
+            iterator = new MergerIterator<T>(_merger);
+        }
+        if (_checkForCancel()) {
+            close();
+            return null;
+        }
+        _phase = Phase.COMPLETE;
+        return iterator;
+    }
+
     /*
     /**********************************************************************
     /* Closeable API
@@ -21,6 +21,11 @@ public abstract class Merger<T>
         _comparator = cmp;
     }
     
+    /**
+     * Method for constructing a reader that returns items of all given readers
+     * (each sorted by given comparator) in sorted order; items that compare
+     * equal are returned in order of their readers.
+     */
     public static <T> DataReader<T> mergedReader(Comparator<T> cmp, List<DataReader<T>> inputs)
         throws IOException
     {
@@ -32,19 +37,7 @@ public abstract class Merger<T>
         case 2:
             return new PairwiseMerger<T>(cmp, inputs.get(0), inputs.get(1));
         }
-        
-        // otherwise, divide and conquer
-        ArrayList<DataReader<T>> readers = new ArrayList<DataReader<T>>(1 + (inputs.size() >> 1));
-        int i = 0;
-        final int end = inputs.size()-1;
-        for (; i < end; i += 2) {
-            readers.add(new PairwiseMerger<T>(cmp, inputs.get(i), inputs.get(i+1)));
-        }
-        // and for odd number of readers, add last one as is without merging
-        if (i < inputs.size()) {
-            readers.add(inputs.get(i));
-        }
-        return mergedReader(cmp, readers);
+        return new LoserTreeMerger<T>(cmp, inputs);
     }
 
     /*
@@ -121,4 +114,134 @@ public abstract class Merger<T>
             }
         }
     }
+
+    /**
+     * Merger of any number of inputs that keeps a tournament tree of "losers"
+     * in a single array: each item returned is replaced by the next one from
+     * the same input, which is then compared only against the losers on the
+     * path from its leaf to the root, so about <code>log2(k)</code> comparisons
+     * are done per item, without a reader object per tree level. This keeps
+     * merges with large merge factors (hundreds of inputs) cheap.
+     */
+    protected static class LoserTreeMerger<T>
+        extends Merger<T>
+    {
+        protected final DataReader<T>[] _readers;
+
+        /**
+         * Current item of each input; null once input is exhausted
+         */
+        protected final Object[] _heads;
+
+        /**
+         * Index of input that lost at each internal node (nodes 1 to k-1; node
+         * <code>p</code> has children <code>2p</code> and <code>2p+1</code>, and
+         * input <code>i</code> is leaf <code>k+i</code>); entry 0 is the overall winner
+         */
+        protected final int[] _tree;
+
+        protected boolean _closed;
+
+        @SuppressWarnings("unchecked")
+        public LoserTreeMerger(Comparator<T> comparator, List<DataReader<T>> inputs)
+            throws IOException
+        {
+            super(comparator);
+            final int k = inputs.size();
+            _readers = (DataReader<T>[]) inputs.toArray(new DataReader<?>[k]);
+            _heads = new Object[k];
+            for (int i = 0; i < k; ++i) {
+                _heads[i] = _readers[i].readNext();
+            }
+            _tree = new int[k];
+            // play initial matches bottom-up, keeping winners of subtrees aside
+            int[] winners = new int[k << 1];
+            for (int i = 0; i < k; ++i) {
+                winners[k + i] = i;
+            }
+            for (int p = k - 1; p > 0; --p) {
+                int a = winners[p << 1];
+                int b = winners[(p << 1) + 1];
+                if (_beats(a, b)) {
+                    winners[p] = a;
+                    _tree[p] = b;
+                } else {
+                    winners[p] = b;
+                    _tree[p] = a;
+                }
+            }
+            _tree[0] = winners[1];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T readNext() throws IOException
+        {
+            int winner = _tree[0];
+            T result = (T) _heads[winner];
+            if (result == null) {
+                // winner is exhausted only if all are
+                close();
+                return null;
+            }
+            _heads[winner] = _readers[winner].readNext();
+            final int[] tree = _tree;
+            for (int p = (winner + tree.length) >> 1; p > 0; p >>= 1) {
+                int loser = tree[p];
+                if (_beats(loser, winner)) {
+                    tree[p] = winner;
+                    winner = loser;
+                }
+            }
+            tree[0] = winner;
+            return result;
+        }
+
+        @Override
+        public int estimateSizeInBytes(T item) {
+            // should not matter so
+            return _readers[0].estimateSizeInBytes(item);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!_closed) {
+                _closed = true;
+                IOException fail = null;
+                for (DataReader<T> reader : _readers) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        if (fail == null) {
+                            fail = e;
+                        }
+                    }
+                }
+                if (fail != null) {
+                    throw fail;
+                }
+            }
+        }
+
+        /**
+         * @return True if current item of input <code>a</code> is to be
+         *    returned before that of input <code>b</code>: exhausted inputs
+         *    lose, and equal items go in input order
+         */
+        @SuppressWarnings("unchecked")
+        private boolean _beats(int a, int b)
+        {
+            Object itemA = _heads[a];
+            Object itemB = _heads[b];
+            if (itemB == null) {
+                return (itemA != null) || (a < b);
+            }
+            if (itemA == null) {
+                return false;
+            }
+            int diff = _comparator.compare((T) itemA, (T) itemB);
+            return (diff < 0) || (diff == 0 && a < b);
+        }
+    }
 }
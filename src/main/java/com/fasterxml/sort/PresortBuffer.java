@@ -0,0 +1,55 @@
+package com.fasterxml.sort;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Buffer that a {@link Sorter} may use for pre-sorting instead of an array of
+ * items read: implementations can store items in a more compact form, and
+ * sort them in their own way, as long as order is that of the sorter's
+ * comparator. Buffer decides itself when it is full, and so does its own
+ * memory accounting.
+ *<p>
+ * Sorters use one if {@link SorterBase#_createPresortBuffer} returns one.
+ */
+public abstract class PresortBuffer<T>
+{
+    /**
+     * Method for adding an item, unless buffer is full. An empty buffer must
+     * accept any item, however large.
+     *
+     * @return True if item was added; false if there was no room for it
+     */
+    public abstract boolean add(T item);
+
+    /**
+     * @return Number of items in the buffer
+     */
+    public abstract int size();
+
+    /**
+     * Method for sorting items added so far.
+     */
+    public abstract void sort();
+
+    /**
+     * Method for writing all items, in their current order, using given writer;
+     * writer is not closed.
+     */
+    public abstract void writeTo(DataWriter<T> writer) throws IOException;
+
+    /**
+     * @return Iterator over all items, in their current order
+     */
+    public abstract Iterator<T> iterator();
+
+    /**
+     * Method for removing all items, keeping memory allocated for reuse.
+     */
+    public abstract void clear();
+
+    /**
+     * Method for removing all items and releasing memory they used.
+     */
+    public abstract void release();
+}
@@ -0,0 +1,315 @@
+package com.fasterxml.sort;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.fasterxml.sort.util.SegmentedBuffer;
+
+/**
+ * Sorter that splits input into key ranges and sorts the ranges independently,
+ * in parallel, instead of merging all of input in one final merge: result is
+ * just the sorted ranges one after another.
+ *<p>
+ * Range boundaries ("splitters") are picked from a sample of the first
+ * memory-full of input; all input is then scattered into one file per range,
+ * and each file is sorted with a {@link Sorter} of its own, with an even share
+ * of memory. Boundaries only affect how evenly work is split, never the
+ * result: items that compare equal always end up in the same range, in input
+ * order, so results are the same as those of {@link Sorter}.
+ *<p>
+ * Uses the same {@link DataReaderFactory}, {@link DataWriterFactory} and
+ * {@link Comparator} as other sorters, and can be constructed from one (like
+ * {@link com.fasterxml.sort.std.TextFileSorter}) to sort the same data.
+ * Instances are not thread-safe.
+ */
+public class RangePartitionedSorter<T> extends SorterBase<T>
+{
+    /**
+     * Number of sampled items per range, to pick boundaries from
+     */
+    protected final static int SAMPLES_PER_PARTITION = 64;
+
+    protected final int _partitions;
+
+    protected final int _threads;
+
+    /**
+     * @param partitions Number of key ranges to sort separately
+     * @param threads Number of ranges sorted at the same time
+     */
+    public RangePartitionedSorter(SortConfig config,
+            DataReaderFactory<T> readerFactory,
+            DataWriterFactory<T> writerFactory,
+            Comparator<T> comparator,
+            int partitions, int threads)
+    {
+        super(config, readerFactory, writerFactory, comparator);
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Illegal number of partitions: " + partitions);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Illegal number of threads: " + threads);
+        }
+        _partitions = partitions;
+        _threads = threads;
+    }
+
+    /**
+     * Constructs an instance that sorts the same data as given sorter, using its
+     * configuration, factories and comparator.
+     */
+    public RangePartitionedSorter(SorterBase<T> base, int partitions, int threads)
+    {
+        this(base._config, base._readerFactory, base._writerFactory, base._comparator,
+                partitions, threads);
+    }
+
+    /*
+    /**********************************************************************
+    /* Main sorting API
+    /**********************************************************************
+     */
+
+    /**
+     * Method that will perform full sort on specified input, writing results
+     * into specified destination. Data conversions needed are done
+     * using {@link DataReaderFactory} and {@link DataWriterFactory} configured
+     * for this sorter.
+     */
+    public void sort(InputStream source, OutputStream destination)
+        throws IOException
+    {
+        sort(_readerFactory.constructReader(source),
+                _writerFactory.constructWriter(destination));
+    }
+
+    /**
+     * Method that will perform full sort on input data read using given
+     * {@link DataReader}, and written out using specified {@link DataWriter}.
+     *
+     * @return true if sorting completed successfully; false if it was cancelled
+     */
+    public boolean sort(DataReader<T> inputReader, DataWriter<T> resultWriter)
+        throws IOException
+    {
+        _phase = Phase.PRE_SORTING;
+        _presortFileCount = 0;
+        _sortRoundCount = -1;
+        _currentSortRound = -1;
+
+        List<File> partitions;
+        try {
+            Object[] items = _readMax(inputReader, new SegmentedBuffer(), _config.getMaxMemoryUsage(), null);
+            if (_checkForCancel()) {
+                return false;
+            }
+            T next = inputReader.readNext();
+            if (next == null) {
+                // all fits in memory, no need for partitions
+                Arrays.sort(items, _rawComparator());
+                _phase = Phase.SORTING;
+                _writeAll(resultWriter, items);
+                resultWriter.close();
+                _phase = Phase.COMPLETE;
+                return true;
+            }
+            partitions = _scatter(items, next, inputReader);
+        } finally {
+            inputReader.close();
+        }
+        _phase = Phase.SORTING;
+        if (_checkForCancel(partitions)) {
+            return false;
+        }
+        _sortRoundCount = partitions.size();
+        _currentSortRound = 0;
+        _sortPartitions(partitions, resultWriter);
+        if (_checkForCancel()) {
+            return false;
+        }
+        _phase = Phase.COMPLETE;
+        return true;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Picks range boundaries from given items, then writes them and rest of
+     * input to one file per range.
+     *
+     * @return Files of all ranges, in key order
+     */
+    @SuppressWarnings("unchecked")
+    protected List<File> _scatter(Object[] items, T next, DataReader<T> inputReader)
+        throws IOException
+    {
+        final Object[] splitters = _pickSplitters(items);
+        final int count = splitters.length + 1;
+        List<File> files = new ArrayList<File>(count);
+        List<DataWriter<T>> writers = new ArrayList<DataWriter<T>>(count);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < count; ++i) {
+                File file = _config.getTempFileProvider().provide();
+                files.add(file);
+                writers.add(_writerFactory.constructWriter(new BufferedOutputStream(new FileOutputStream(file))));
+            }
+            for (int i = 0; i < items.length; ++i) {
+                T item = (T) items[i];
+                writers.get(_partitionOf(splitters, item)).writeEntry(item);
+                items[i] = null;
+            }
+            do {
+                writers.get(_partitionOf(splitters, next)).writeEntry(next);
+            } while ((next = inputReader.readNext()) != null);
+            for (DataWriter<T> writer : writers) {
+                writer.close();
+            }
+            _presortFileCount = count;
+            ok = true;
+        } finally {
+            if (!ok) {
+                for (DataWriter<T> writer : writers) {
+                    try { writer.close(); } catch (IOException e) { }
+                }
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return Up to <code>partitions - 1</code> items of a sample of given
+     *    items, at even intervals in sort order
+     */
+    protected Object[] _pickSplitters(Object[] items)
+    {
+        final int sampleSize = (int) Math.min(items.length, (long) _partitions * SAMPLES_PER_PARTITION);
+        Object[] sample = new Object[sampleSize];
+        // items taken at even intervals of input, so that a sorted run does not skew the sample
+        for (int i = 0; i < sampleSize; ++i) {
+            sample[i] = items[(int) ((long) i * items.length / sampleSize)];
+        }
+        Arrays.sort(sample, _rawComparator());
+        final int count = Math.min(_partitions, sampleSize) - 1;
+        Object[] splitters = new Object[Math.max(count, 0)];
+        for (int i = 0; i < splitters.length; ++i) {
+            splitters[i] = sample[(int) ((long) (i + 1) * sampleSize / (count + 1))];
+        }
+        return splitters;
+    }
+
+    /**
+     * @return Index of range of given item: number of splitters that do not
+     *    sort after it
+     */
+    @SuppressWarnings("unchecked")
+    protected int _partitionOf(Object[] splitters, T item)
+    {
+        int lo = 0;
+        int hi = splitters.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_comparator.compare(item, (T) splitters[mid]) < 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Sorts range files on background threads, copying each one to result
+     * (in key order) as soon as it and all ranges before it are sorted.
+     */
+    protected void _sortPartitions(List<File> partitions, DataWriter<T> resultWriter)
+        throws IOException
+    {
+        final int threads = Math.min(_threads, partitions.size());
+        final SortConfig config = _config.withMaxMemoryUsage(_config.getMaxMemoryUsage() / threads);
+        ExecutorService executor = _newExecutor(threads, "partition-sort");
+        ArrayDeque<Future<File>> pending = new ArrayDeque<Future<File>>(partitions.size());
+        boolean ok = false;
+        try {
+            for (final File partition : partitions) {
+                pending.addLast(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return _sortPartition(config, partition);
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                File sorted = _await(pending.removeFirst());
+                try {
+                    _copy(sorted, resultWriter);
+                } finally {
+                    sorted.delete();
+                }
+                ++_currentSortRound;
+            }
+            resultWriter.close();
+            ok = true;
+        } finally {
+            executor.shutdown();
+            _discard(pending);
+            if (!ok) {
+                for (File partition : partitions) {
+                    partition.delete();
+                }
+            }
+        }
+    }
+
+    protected File _sortPartition(SortConfig config, File partition)
+        throws IOException
+    {
+        File sorted = _config.getTempFileProvider().provide();
+        boolean ok = false;
+        try {
+            Sorter<T> sorter = new Sorter<T>(config, _readerFactory, _writerFactory, _comparator);
+            if (!sorter.sort(_readerFactory.constructReader(new FileInputStream(partition)),
+                    _writerFactory.constructWriter(new BufferedOutputStream(new FileOutputStream(sorted))))) {
+                throw new IOException("Sorting of a partition was cancelled");
+            }
+            ok = true;
+        } finally {
+            partition.delete();
+            if (!ok) {
+                sorted.delete();
+            }
+        }
+        return sorted;
+    }
+
+    protected void _copy(File sorted, DataWriter<T> resultWriter)
+        throws IOException
+    {
+        try (DataReader<T> reader = _readerFactory.constructReader(new FileInputStream(sorted))) {
+            T item;
+            while ((item = reader.readNext()) != null) {
+                resultWriter.writeEntry(item);
+            }
+        }
+    }
+}
@@ -19,8 +19,24 @@ public class SortConfig
      */
     public final static int DEFAULT_MERGE_FACTOR = 16;
 
+    /**
+     * By default pre-sorting is done by the thread that reads input
+     */
+    public final static int DEFAULT_PRESORT_THREADS = 1;
+
+    /**
+     * By default files are merged one group at a time
+     */
+    public final static int DEFAULT_MERGE_THREADS = 1;
+
     protected int _mergeFactor;
 
+    protected int _presortThreads;
+
+    protected int _mergeThreads;
+
+    protected boolean _arenaPresort;
+
     protected long _maxMemoryUsage;
     
     protected TempFileProvider _tempFileProvider;
@@ -34,25 +50,45 @@ public class SortConfig
     public SortConfig()
     {
         _mergeFactor = DEFAULT_MERGE_FACTOR;
+        _presortThreads = DEFAULT_PRESORT_THREADS;
+        _mergeThreads = DEFAULT_MERGE_THREADS;
         _maxMemoryUsage = DEFAULT_MEMORY_USAGE;
         _tempFileProvider = new StdTempFileProvider();
     }
 
+    protected SortConfig(SortConfig base) {
+        _maxMemoryUsage = base._maxMemoryUsage;
+        _mergeFactor = base._mergeFactor;
+        _presortThreads = base._presortThreads;
+        _mergeThreads = base._mergeThreads;
+        _arenaPresort = base._arenaPresort;
+        _tempFileProvider = base._tempFileProvider;
+    }
+
     protected SortConfig(SortConfig base, int mergeFactor) {
         _maxMemoryUsage = base._maxMemoryUsage;
         _mergeFactor = mergeFactor;
+        _presortThreads = base._presortThreads;
+        _mergeThreads = base._mergeThreads;
+        _arenaPresort = base._arenaPresort;
         _tempFileProvider = base._tempFileProvider;
     }
     
     protected SortConfig(SortConfig base, long maxMem) {
         _maxMemoryUsage = maxMem;
         _mergeFactor = base._mergeFactor;
+        _presortThreads = base._presortThreads;
+        _mergeThreads = base._mergeThreads;
+        _arenaPresort = base._arenaPresort;
         _tempFileProvider = base._tempFileProvider;
     }
 
     protected SortConfig(SortConfig base, TempFileProvider prov) {
         _mergeFactor = base._mergeFactor;
         _maxMemoryUsage = base._maxMemoryUsage;
+        _presortThreads = base._presortThreads;
+        _mergeThreads = base._mergeThreads;
+        _arenaPresort = base._arenaPresort;
         _tempFileProvider = prov;
     }
     
@@ -63,6 +99,12 @@ public class SortConfig
      */
 
     public int getMergeFactor() { return _mergeFactor; }
+
+    public int getPresortThreads() { return _presortThreads; }
+
+    public int getMergeThreads() { return _mergeThreads; }
+
+    public boolean isArenaPresort() { return _arenaPresort; }
     
     public long getMaxMemoryUsage() { return _maxMemoryUsage; }
 
@@ -90,6 +132,93 @@ public class SortConfig
         return new SortConfig(this, maxMem);
     }
 
+    /**
+     * Method for constructing configuration instance that defines how many
+     * files are merged at once. Merging is cheap even for hundreds of files,
+     * so a larger factor mostly saves merge rounds, at the cost of an input
+     * buffer (and an open file) per merged file.
+     *
+     * @param mergeFactor Maximum number of files to merge at once; at least 2
+     * @return New instance, or this instance if the setting did not change
+     */
+    public SortConfig withMergeFactor(int mergeFactor)
+    {
+        if (mergeFactor < 2) {
+            throw new IllegalArgumentException("Illegal merge factor: " + mergeFactor + " (must be at least 2)");
+        }
+        if (mergeFactor == _mergeFactor) {
+            return this;
+        }
+        return new SortConfig(this, mergeFactor);
+    }
+
+    /**
+     * Method for constructing configuration instance that defines how many
+     * threads pre-sort input, including the one reading it. With more than one,
+     * reading, sorting and writing of different chunks overlap: the reading
+     * thread fills one chunk while the others sort and write earlier chunks in
+     * the background. Memory is split evenly between one chunk per thread, so
+     * more (smaller) pre-sorted files are written.
+     *
+     * @param threads Number of threads; 1 to pre-sort in the reading thread only
+     * @return New instance, or this instance if the setting did not change
+     */
+    public SortConfig withPresortThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Illegal number of pre-sort threads: " + threads);
+        }
+        if (threads == _presortThreads) {
+            return this;
+        }
+        SortConfig config = new SortConfig(this);
+        config._presortThreads = threads;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that defines how many
+     * groups of files are merged concurrently in intermediate merge rounds
+     * (ones done when there are more files than the merge factor). Groups
+     * of a round are independent, and each merge has input and output
+     * buffers of its own; final merge round is always a single merge.
+     *
+     * @param threads Number of concurrent merges; 1 to merge one group at a time
+     * @return New instance, or this instance if the setting did not change
+     */
+    public SortConfig withMergeThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Illegal number of merge threads: " + threads);
+        }
+        if (threads == _mergeThreads) {
+            return this;
+        }
+        SortConfig config = new SortConfig(this);
+        config._mergeThreads = threads;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that defines whether
+     * sorters of byte lines (like {@link com.fasterxml.sort.std.TextFileSorter})
+     * pre-sort lines packed into large arrays (see {@link com.fasterxml.sort.std.LineArena})
+     * instead of keeping an array per line. Memory used is then accounted for
+     * exactly, and sorting mostly compares 8-byte key prefixes. Off by default;
+     * sorters of other data ignore it.
+     *
+     * @return New instance, or this instance if the setting did not change
+     */
+    public SortConfig withArenaPresort(boolean state)
+    {
+        if (state == _arenaPresort) {
+            return this;
+        }
+        SortConfig config = new SortConfig(this);
+        config._arenaPresort = state;
+        return config;
+    }
+
     public SortConfig withTempFileProvider(TempFileProvider provider)
     {
         if (provider == _tempFileProvider) {
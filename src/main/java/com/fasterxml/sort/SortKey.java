@@ -0,0 +1,12 @@
+package com.fasterxml.sort;
+
+/**
+ * Interface for objects that give items a primitive sort key, for sorting
+ * that compares plain numbers instead of calling a {@link java.util.Comparator}:
+ * items with smaller keys sort first. Key is asked for once per item, so
+ * any parsing it needs is not repeated for each comparison.
+ */
+public interface SortKey<T>
+{
+    public double keyFor(T item);
+}
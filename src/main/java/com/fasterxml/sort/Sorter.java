@@ -6,6 +6,8 @@ import java.io.OutputStream;
 import java.util.Comparator;
 import java.util.Iterator;
 
+import com.fasterxml.sort.util.TopNCollector;
+
 /**
  * Main entry point for sorting functionality; object that drives
  * the sorting process from pre-sort to final output.
@@ -97,4 +99,38 @@ public class Sorter<T> extends IteratingSorter<T>
         }
         return true;
     }
+
+    /**
+     * Method that will write only the first <code>n</code> items of input, in order
+     * of given primitive sort key (items with equal keys in input order), using
+     * specified {@link DataWriter}. Input is streamed through a bounded heap of
+     * keys (see {@link TopNCollector}): memory used depends on <code>n</code>, not
+     * on size of input, and no pre-sorted files are written at all.
+     *
+     * @param n Maximum number of items to write
+     * @param sortKey Key to order items by, instead of the comparator of this sorter
+     *
+     * @return Number of items read from input
+     */
+    public long sortTopN(DataReader<T> inputReader, DataWriter<T> resultWriter, int n, SortKey<T> sortKey)
+        throws IOException
+    {
+        TopNCollector<T> collector = new TopNCollector<T>(sortKey, n);
+        _phase = Phase.PRE_SORTING;
+        try {
+            T item;
+            while ((item = inputReader.readNext()) != null) {
+                collector.writeEntry(item);
+            }
+        } finally {
+            inputReader.close();
+        }
+        _phase = Phase.SORTING;
+        for (T item : collector.sortedEntries()) {
+            resultWriter.writeEntry(item);
+        }
+        resultWriter.close();
+        _phase = Phase.COMPLETE;
+        return collector.getCount();
+    }
 }
@@ -2,6 +2,12 @@ package com.fasterxml.sort;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.fasterxml.sort.util.SegmentedBuffer;
@@ -148,6 +154,18 @@ public abstract class SorterBase<T>
     /********************************************************************** 
      */
 
+    /**
+     * Method that sorters can override to pre-sort using a {@link PresortBuffer}
+     * instead of an array of items read.
+     *
+     * @param maxMemory Memory buffer is to use
+     *
+     * @return Buffer to use; null (default) to use an array
+     */
+    protected PresortBuffer<T> _createPresortBuffer(long maxMemory) {
+        return null;
+    }
+
     /**
      * Helper method that will fill given buffer with data read using
      * given reader, obeying given memory usage constraints.
@@ -201,14 +219,176 @@ public abstract class SorterBase<T>
             List<File> presorted)
         throws IOException
     {
+        if (_config.getPresortThreads() > 1) {
+            _presortPipelined(inputReader, buffer, nextValue, presorted);
+            return;
+        }
         do {
             Object[] items = _readMax(inputReader, buffer, _config.getMaxMemoryUsage(), nextValue);
             Arrays.sort(items, _rawComparator());
             presorted.add(_writePresorted(items));
+            ++_presortFileCount;
             nextValue = inputReader.readNext();
         } while (nextValue != null);
     }
 
+    /**
+     * Pre-sort variant for sorters that use a {@link PresortBuffer}: given
+     * buffer (already written out) is reused for the rest of input.
+     */
+    protected void _presort(DataReader<T> inputReader, PresortBuffer<T> buffer, T nextValue,
+            List<File> presorted)
+        throws IOException
+    {
+        if (_config.getPresortThreads() > 1) {
+            // chunks get buffers of their own
+            buffer.release();
+            _presortPipelined(inputReader, new SegmentedBuffer(), nextValue, presorted);
+            return;
+        }
+        do {
+            buffer.clear();
+            nextValue = _fill(inputReader, buffer, nextValue);
+            buffer.sort();
+            presorted.add(_writePresorted(buffer));
+            ++_presortFileCount;
+        } while (nextValue != null);
+        buffer.release();
+    }
+
+    /**
+     * Helper method that will add items read using given reader to given
+     * buffer, until buffer is full or input ends.
+     *
+     * @return Item that did not fit in the buffer; null if input ended
+     */
+    protected T _fill(DataReader<T> inputReader, PresortBuffer<T> buffer, T firstItem)
+        throws IOException
+    {
+        if (firstItem != null) {
+            buffer.add(firstItem);
+        }
+        T value;
+        while ((value = inputReader.readNext()) != null) {
+            if (!buffer.add(value)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pre-sort variant that reads chunks in the calling thread, and sorts and
+     * writes them in background threads: at most one chunk per thread is in
+     * memory, being read, sorted or written, each taking an even share of
+     * memory. Pre-sorted files are added in input order.
+     */
+    protected void _presortPipelined(DataReader<T> inputReader, SegmentedBuffer buffer, T nextValue,
+            List<File> presorted)
+        throws IOException
+    {
+        final int threads = _config.getPresortThreads();
+        final long chunkMemory = _config.getMaxMemoryUsage() / threads;
+        final int background = threads - 1;
+        ExecutorService executor = _newExecutor(background, "presort");
+        ArrayDeque<Future<File>> pending = new ArrayDeque<Future<File>>(background);
+        try {
+            do {
+                final Callable<File> task;
+                final PresortBuffer<T> chunk = _createPresortBuffer(chunkMemory);
+                if (chunk != null) {
+                    nextValue = _fill(inputReader, chunk, nextValue);
+                    task = new Callable<File>() {
+                        @Override
+                        public File call() throws IOException {
+                            chunk.sort();
+                            return _writePresorted(chunk);
+                        }
+                    };
+                } else {
+                    final Object[] items = _readMax(inputReader, buffer, chunkMemory, nextValue);
+                    nextValue = inputReader.readNext();
+                    task = new Callable<File>() {
+                        @Override
+                        public File call() throws IOException {
+                            Arrays.sort(items, _rawComparator());
+                            return _writePresorted(items);
+                        }
+                    };
+                }
+                // wait for a chunk to be written before reading another
+                if (pending.size() == background) {
+                    presorted.add(_await(pending.removeFirst()));
+                    ++_presortFileCount;
+                }
+                pending.addLast(executor.submit(task));
+            } while (nextValue != null);
+            while (!pending.isEmpty()) {
+                presorted.add(_await(pending.removeFirst()));
+                ++_presortFileCount;
+            }
+        } finally {
+            executor.shutdown();
+            // after a failure, files of chunks still pending are not needed
+            _discard(pending);
+        }
+    }
+
+    /*
+    /********************************************************************** 
+    /* Internal methods, background tasks
+    /********************************************************************** 
+     */
+
+    protected static ExecutorService _newExecutor(int threads, final String name)
+    {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Waits for given tasks and deletes the files they wrote. Tasks are not
+     * cancelled, since a task cancelled while running would still write its
+     * file, with nobody left to delete it.
+     */
+    protected static void _discard(Collection<Future<File>> pending)
+    {
+        for (Future<File> f : pending) {
+            try {
+                f.get().delete();
+            } catch (Exception e) {
+                // failed, nothing written
+            }
+        }
+    }
+
+    protected static File _await(Future<File> result) throws IOException
+    {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            InterruptedIOException ie = new InterruptedIOException();
+            ie.initCause(e);
+            throw ie;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     @SuppressWarnings("resource")
     protected File _writePresorted(Object[] items) throws IOException
     {
@@ -217,7 +397,6 @@ public abstract class SorterBase<T>
         DataWriter<Object> writer = (DataWriter<Object>) _writerFactory.constructWriter(new FileOutputStream(tmp));
         boolean closed = false;
         try {
-            ++_presortFileCount;
             for (int i = 0, end = items.length; i < end; ++i) {
                 writer.writeEntry(items[i]);
                 // to further reduce transient mem usage, clear out the ref
@@ -234,6 +413,24 @@ public abstract class SorterBase<T>
         return tmp;
     }
     
+    @SuppressWarnings("resource")
+    protected File _writePresorted(PresortBuffer<T> buffer) throws IOException
+    {
+        File tmp = _config.getTempFileProvider().provide();
+        DataWriter<T> writer = _writerFactory.constructWriter(new FileOutputStream(tmp));
+        boolean closed = false;
+        try {
+            buffer.writeTo(writer);
+            closed = true;
+            writer.close();
+        } finally {
+            if (!closed) {
+                try { writer.close(); } catch (IOException e) { }
+            }
+        }
+        return tmp;
+    }
+
     /*
     /********************************************************************** 
     /* Internal methods, sorting, output
@@ -265,19 +462,64 @@ public abstract class SorterBase<T>
 
         // first intermediate rounds
         List<File> inputs = presorted;
-        while (inputs.size() > mergeFactor) {
-            ArrayList<File> outputs = new ArrayList<File>(1 + ((inputs.size() + mergeFactor - 1) / mergeFactor));
-            for (int offset = 0, end = inputs.size(); offset < end; offset += mergeFactor) {
-                int localEnd = Math.min(offset + mergeFactor, end);
-                outputs.add(_merge(inputs.subList(offset, localEnd)));
+        final int threads = _config.getMergeThreads();
+        ExecutorService executor = (threads > 1 && inputs.size() > mergeFactor)
+                ? _newExecutor(threads, "merge") : null;
+        try {
+            while (inputs.size() > mergeFactor) {
+                ArrayList<File> outputs = new ArrayList<File>(1 + ((inputs.size() + mergeFactor - 1) / mergeFactor));
+                if (executor == null) {
+                    for (int offset = 0, end = inputs.size(); offset < end; offset += mergeFactor) {
+                        int localEnd = Math.min(offset + mergeFactor, end);
+                        outputs.add(_merge(inputs.subList(offset, localEnd)));
+                    }
+                } else {
+                    _mergeConcurrently(executor, inputs, mergeFactor, outputs);
+                }
+                ++_currentSortRound;
+                // and then switch result files to be input files
+                inputs = outputs;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
             }
-            ++_currentSortRound;
-            // and then switch result files to be input files
-            inputs = outputs;
         }
         return inputs;
     }
 
+    /**
+     * Merges groups of a round on given executor, adding results in input order.
+     */
+    protected void _mergeConcurrently(ExecutorService executor, List<File> inputs, int mergeFactor,
+            List<File> outputs)
+        throws IOException
+    {
+        ArrayDeque<Future<File>> pending = new ArrayDeque<Future<File>>();
+        try {
+            for (int offset = 0, end = inputs.size(); offset < end; offset += mergeFactor) {
+                final List<File> group = inputs.subList(offset, Math.min(offset + mergeFactor, end));
+                pending.addLast(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return _merge(group);
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                outputs.add(_await(pending.removeFirst()));
+            }
+        } catch (IOException | RuntimeException e) {
+            // results of the round are useless without the failed group
+            for (File output : outputs) {
+                output.delete();
+            }
+            throw e;
+        } finally {
+            _discard(pending);
+        }
+    }
+
     protected void _writeAll(DataWriter<T> resultWriter, Object[] items)
         throws IOException
     {
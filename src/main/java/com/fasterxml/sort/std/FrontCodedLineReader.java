@@ -0,0 +1,180 @@
+package com.fasterxml.sort.std;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.sort.DataReader;
+import com.fasterxml.sort.DataReaderFactory;
+
+/**
+ * Reader for files written by {@link FrontCodedLineWriter}. A line written
+ * several times in a row is returned as many times, as the same array, so
+ * lines returned must not be modified.
+ */
+public class FrontCodedLineReader
+    extends DataReader<byte[]>
+{
+    protected final InputStream _in;
+
+    protected boolean _closed = false;
+
+    protected byte[] _inputBuffer = new byte[16000];
+    protected int _inputPtr = 0;
+    protected int _inputEnd = 0;
+
+    /**
+     * Line decoded last
+     */
+    protected byte[] _current;
+
+    /**
+     * Number of times {@link #_current} is still to be returned
+     */
+    protected int _repeats;
+
+    public FrontCodedLineReader(InputStream in)
+    {
+        _in = in;
+    }
+
+    /**
+     * Convenience method for instantiating factory to create instances of
+     * this {@link DataReader}.
+     */
+    public static Factory factory() {
+        return new Factory();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            _closed = true;
+            _in.close();
+        }
+    }
+
+    @Override
+    public int estimateSizeInBytes(byte[] item)
+    {
+        // same as for text lines; repeated lines share one array, so this
+        // errs on the safe side
+        int bytes = item.length;
+        bytes = ((bytes + 3) >> 2) << 2;
+        return 16 + bytes;
+    }
+
+    @Override
+    public byte[] readNext() throws IOException
+    {
+        if (_repeats > 0) {
+            --_repeats;
+            return _current;
+        }
+        if (_closed) {
+            return null;
+        }
+        if (_inputPtr >= _inputEnd) {
+            if (!_loadMore(0)) {
+                close();
+                return null;
+            }
+        }
+        final int shared = _readVInt();
+        final int suffix = _readVInt();
+        if (shared > 0 && (_current == null || shared > _current.length)) {
+            throw new IOException("Corrupt front-coded line: shared prefix of "+shared
+                    +" bytes, previous line has "+((_current == null) ? 0 : _current.length));
+        }
+        _ensure(suffix);
+        byte[] line = new byte[shared + suffix];
+        if (shared > 0) {
+            System.arraycopy(_current, 0, line, 0, shared);
+        }
+        System.arraycopy(_inputBuffer, _inputPtr, line, shared, suffix);
+        _inputPtr += suffix;
+        final int count = _readVInt();
+        if (count < 1) {
+            throw new IOException("Corrupt front-coded line: repeat count "+count);
+        }
+        _current = line;
+        _repeats = count - 1;
+        return line;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected int _readVInt() throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            _ensure(1);
+            int b = _inputBuffer[_inputPtr++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt front-coded line: variable-length int too long");
+    }
+
+    /**
+     * Makes sure that at least given number of bytes is available in the buffer
+     */
+    protected void _ensure(int needed) throws IOException
+    {
+        if (_inputEnd - _inputPtr >= needed) {
+            return;
+        }
+        if (!_loadMore(needed)) {
+            throw new EOFException("Unexpected end of input in the middle of a line");
+        }
+    }
+
+    /**
+     * Loads more input, keeping unread bytes, until at least given number of bytes is available
+     * (or at least one byte if <code>needed</code> is 0).
+     */
+    protected boolean _loadMore(int needed) throws IOException
+    {
+        final int remaining = _inputEnd - _inputPtr;
+        if (needed > _inputBuffer.length) {
+            byte[] buf = new byte[needed];
+            System.arraycopy(_inputBuffer, _inputPtr, buf, 0, remaining);
+            _inputBuffer = buf;
+        } else if (remaining > 0) {
+            System.arraycopy(_inputBuffer, _inputPtr, _inputBuffer, 0, remaining);
+        }
+        _inputPtr = 0;
+        _inputEnd = remaining;
+        final int min = Math.max(needed, 1);
+        while (_inputEnd < min) {
+            int count = _in.read(_inputBuffer, _inputEnd, _inputBuffer.length - _inputEnd);
+            if (count < 0) {
+                return false;
+            }
+            _inputEnd += count;
+        }
+        return true;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    public static class Factory
+        extends DataReaderFactory<byte[]>
+    {
+        @Override
+        public DataReader<byte[]> constructReader(InputStream in) {
+            return new FrontCodedLineReader(in);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.fasterxml.sort.std;
+
+import com.fasterxml.sort.*;
+
+/**
+ * {@link Sorter} implementation for byte lines, like {@link TextFileSorter},
+ * but with temporary files (and files read or written by it) in the
+ * front-coded format of {@link FrontCodedLineWriter}: pre-sorted and merged
+ * files are sorted, so they compress well, and less data is written and read
+ * back in each merge round.
+ */
+public class FrontCodedLineSorter extends Sorter<byte[]>
+{
+    public FrontCodedLineSorter() {
+        this(new SortConfig());
+    }
+
+    public FrontCodedLineSorter(SortConfig config)
+    {
+        super(config,
+                FrontCodedLineReader.factory(), FrontCodedLineWriter.factory(),
+                new ByteArrayComparator());
+    }
+
+    @Override
+    protected PresortBuffer<byte[]> _createPresortBuffer(long maxMemory) {
+        return _config.isArenaPresort() ? new LineArena(maxMemory) : null;
+    }
+}
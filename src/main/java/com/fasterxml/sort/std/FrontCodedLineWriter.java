@@ -0,0 +1,185 @@
+package com.fasterxml.sort.std;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.DataWriterFactory;
+
+/**
+ * Writer for sorted byte lines that stores each line as the difference from
+ * the one before it ("front coding"), which makes sorted files of similar
+ * lines (like n-grams) a fraction of their size as text. Each distinct line
+ * is written as:
+ *<ul>
+ * <li>length of the prefix shared with the previous line, as variable-length
+ *    int (7 bits per byte)</li>
+ * <li>length of the rest of the line, as variable-length int</li>
+ * <li>rest of the line</li>
+ * <li>number of times the line was written in a row, as variable-length int</li>
+ *</ul>
+ * Every {@link #RESTART_INTERVAL} distinct lines, a line is written whole
+ * (with shared prefix length 0), which starts a block that can be decoded
+ * without the lines before it.
+ *<p>
+ * Lines need not be sorted, but the less they share with the previous line,
+ * the less is saved. Lines are not copied, so they must not be modified after
+ * being written.
+ */
+public class FrontCodedLineWriter
+    extends DataWriter<byte[]>
+{
+    /**
+     * Number of distinct lines per block
+     */
+    public final static int RESTART_INTERVAL = 16;
+
+    protected final OutputStream _out;
+
+    protected boolean _closed = false;
+
+    protected final byte[] _outputBuffer = new byte[16000];
+    protected int _outputTail = 0;
+
+    /**
+     * Line last written, not yet encoded since it may still repeat
+     */
+    protected byte[] _pending;
+
+    protected int _pendingCount;
+
+    /**
+     * Line encoded before {@link #_pending}; null at start of a block
+     */
+    protected byte[] _previous;
+
+    protected int _blockEntries;
+
+    public FrontCodedLineWriter(OutputStream out)
+    {
+        _out = out;
+    }
+
+    /**
+     * Convenience method for instantiating factory to create instances of
+     * this {@link DataWriter}.
+     */
+    public static Factory factory() {
+        return new Factory();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            _closed = true;
+            if (_pending != null) {
+                _encodePending();
+            }
+            _flushBuffer();
+            _out.close();
+        }
+    }
+
+    @Override
+    public void writeEntry(byte[] item) throws IOException
+    {
+        if (_closed) {
+            throw new IOException("Can not write using closed DataWriter");
+        }
+        if (_pending != null) {
+            if (item == _pending || _equals(item, _pending)) {
+                ++_pendingCount;
+                return;
+            }
+            _encodePending();
+        }
+        _pending = item;
+        _pendingCount = 1;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _encodePending() throws IOException
+    {
+        final byte[] line = _pending;
+        int shared = 0;
+        if (_blockEntries == RESTART_INTERVAL) {
+            _blockEntries = 0;
+        } else if (_previous != null) {
+            final byte[] prev = _previous;
+            final int max = Math.min(prev.length, line.length);
+            while (shared < max && prev[shared] == line[shared]) {
+                ++shared;
+            }
+        }
+        final int suffix = line.length - shared;
+        // three vints take at most 15 bytes
+        if (_outputTail + suffix + 15 > _outputBuffer.length) {
+            _flushBuffer();
+        }
+        _writeVInt(shared);
+        _writeVInt(suffix);
+        if (suffix > _outputBuffer.length - 15) {
+            _flushBuffer();
+            _out.write(line, shared, suffix);
+        } else {
+            System.arraycopy(line, shared, _outputBuffer, _outputTail, suffix);
+            _outputTail += suffix;
+        }
+        _writeVInt(_pendingCount);
+        ++_blockEntries;
+        _previous = line;
+        _pending = null;
+    }
+
+    protected void _writeVInt(int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            _outputBuffer[_outputTail++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _outputBuffer[_outputTail++] = (byte) value;
+    }
+
+    protected void _flushBuffer() throws IOException
+    {
+        if (_outputTail > 0) {
+            _out.write(_outputBuffer, 0, _outputTail);
+            _outputTail = 0;
+        }
+    }
+
+    private static boolean _equals(byte[] b1, byte[] b2)
+    {
+        if (b1.length != b2.length) {
+            return false;
+        }
+        // sorted lines mostly differ near the end
+        for (int i = b1.length - 1; i >= 0; --i) {
+            if (b1[i] != b2[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    public static class Factory
+        extends DataWriterFactory<byte[]>
+    {
+        @Override
+        public DataWriter<byte[]> constructWriter(OutputStream out) {
+            return new FrontCodedLineWriter(out);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.fasterxml.sort.std;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.PresortBuffer;
+
+/**
+ * {@link PresortBuffer} for byte lines, in the order of {@link ByteArrayComparator}.
+ * Lines are not kept as arrays of their own; their bytes (each preceded by
+ * its length) are appended to a few large byte arrays ("arenas"), and lines
+ * are sorted as a single <code>long[]</code> of pairs: the first 8 bytes of
+ * the line as an unsigned big-endian number, and location of the line in the
+ * arenas. Most comparisons only look at the 8-byte prefixes, next to each
+ * other in memory; rest of the lines is compared only when prefixes are equal.
+ *<p>
+ * Memory used is what is allocated for arenas and pairs, so it can be
+ * accounted for exactly, and a buffer full of lines is a handful of objects
+ * instead of one per line. Lines are only allocated as arrays again when
+ * written out; consecutive equal lines share one array.
+ */
+public class LineArena extends PresortBuffer<byte[]>
+{
+    /**
+     * Arenas are at most this large, to keep unused space of the last one small
+     */
+    public final static int MAX_ARENA_SIZE = 1 << 20;
+
+    private final static int MIN_ARENA_SIZE = 4096;
+
+    private final static int LENGTH_BYTES = 4;
+
+    private final static int MIN_ENTRIES = 1024;
+
+    /**
+     * Ranges shorter than this are sorted by insertion
+     */
+    private final static int INSERTION_SORT_THRESHOLD = 16;
+
+    private final long _maxMemory;
+
+    private final int _arenaSize;
+
+    /**
+     * Arenas in use, then ones kept for reuse
+     */
+    private final ArrayList<byte[]> _arenas = new ArrayList<byte[]>();
+
+    /**
+     * Index of arena being filled; -1 if none yet
+     */
+    private int _arenaIndex = -1;
+
+    private int _arenaPtr;
+
+    /**
+     * Pairs of (key prefix, location) per line; location has index of arena in
+     * upper 32 bits, offset of line length in lower 32 bits
+     */
+    private long[] _entries = new long[0];
+
+    private int _size;
+
+    /**
+     * Bytes allocated for arenas and entries
+     */
+    private long _memory;
+
+    /**
+     * @param maxMemory Memory to use; arenas and sort entries together stay
+     *    within it, except for a single line that is larger
+     */
+    public LineArena(long maxMemory)
+    {
+        _maxMemory = maxMemory;
+        _arenaSize = (int) Math.max(MIN_ARENA_SIZE, Math.min(MAX_ARENA_SIZE, maxMemory >> 4));
+    }
+
+    /*
+    /**********************************************************************
+    /* PresortBuffer implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public boolean add(byte[] line)
+    {
+        final int needed = LENGTH_BYTES + line.length;
+        long extra = 0L;
+        byte[] arena = (_arenaIndex < 0) ? null : _arenas.get(_arenaIndex);
+        byte[] next = null;
+        if (arena == null || _arenaPtr + needed > arena.length) {
+            int nextIndex = _arenaIndex + 1;
+            if (nextIndex < _arenas.size() && _arenas.get(nextIndex).length >= needed) {
+                next = _arenas.get(nextIndex);
+            } else {
+                extra += Math.max(_arenaSize, needed);
+            }
+        }
+        int entries = _entries.length;
+        if ((_size << 1) + 2 > entries) {
+            int grown = Math.max(MIN_ENTRIES, entries + (entries >> 1));
+            extra += (long) (grown - entries) * 8L;
+            entries = grown;
+        }
+        if (_size > 0 && _memory + extra > _maxMemory) {
+            return false;
+        }
+        if (entries > _entries.length) {
+            _entries = Arrays.copyOf(_entries, entries);
+        }
+        if (arena == null || _arenaPtr + needed > arena.length) {
+            if (next == null) {
+                next = new byte[Math.max(_arenaSize, needed)];
+                _arenas.add(_arenaIndex + 1, next);
+            }
+            arena = next;
+            ++_arenaIndex;
+            _arenaPtr = 0;
+        }
+        _memory += extra;
+
+        int ptr = _arenaPtr;
+        final int len = line.length;
+        arena[ptr] = (byte) (len >>> 24);
+        arena[ptr+1] = (byte) (len >>> 16);
+        arena[ptr+2] = (byte) (len >>> 8);
+        arena[ptr+3] = (byte) len;
+        System.arraycopy(line, 0, arena, ptr + LENGTH_BYTES, len);
+        _arenaPtr = ptr + needed;
+
+        final int ix = _size << 1;
+        _entries[ix] = _prefix(line);
+        _entries[ix+1] = ((long) _arenaIndex << 32) | ptr;
+        ++_size;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return Bytes allocated for lines and their sort entries
+     */
+    public long memoryUsed() {
+        return _memory;
+    }
+
+    @Override
+    public void sort() {
+        _sort(0, _size);
+    }
+
+    @Override
+    public void writeTo(DataWriter<byte[]> writer) throws IOException
+    {
+        byte[] prev = null;
+        long prevPrefix = 0L;
+        long prevLocation = 0L;
+        for (int i = 0; i < _size; ++i) {
+            final long prefix = _entries[i << 1];
+            final long location = _entries[(i << 1) + 1];
+            if (prev == null || _compare(prevPrefix, prevLocation, prefix, location) != 0) {
+                prev = _line(location);
+                prevPrefix = prefix;
+                prevLocation = location;
+            }
+            writer.writeEntry(prev);
+        }
+    }
+
+    @Override
+    public Iterator<byte[]> iterator()
+    {
+        return new Iterator<byte[]>() {
+            private int _index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return _index < _size;
+            }
+
+            @Override
+            public byte[] next() {
+                if (_index >= _size) {
+                    throw new NoSuchElementException();
+                }
+                return _line(_entries[((_index++) << 1) + 1]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void clear()
+    {
+        // only arenas of standard size are worth keeping
+        for (int i = _arenas.size() - 1; i >= 0; --i) {
+            if (_arenas.get(i).length != _arenaSize) {
+                _memory -= _arenas.remove(i).length;
+            }
+        }
+        _arenaIndex = -1;
+        _arenaPtr = 0;
+        _size = 0;
+    }
+
+    @Override
+    public void release()
+    {
+        _arenas.clear();
+        _entries = new long[0];
+        _arenaIndex = -1;
+        _arenaPtr = 0;
+        _size = 0;
+        _memory = 0L;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods, access
+    /**********************************************************************
+     */
+
+    private static long _prefix(byte[] line)
+    {
+        long prefix = 0L;
+        final int end = Math.min(8, line.length);
+        for (int i = 0; i < end; ++i) {
+            prefix |= (line[i] & 0xFFL) << (56 - (i << 3));
+        }
+        return prefix;
+    }
+
+    private static int _length(byte[] arena, int offset)
+    {
+        return ((arena[offset] & 0xFF) << 24) | ((arena[offset+1] & 0xFF) << 16)
+                | ((arena[offset+2] & 0xFF) << 8) | (arena[offset+3] & 0xFF);
+    }
+
+    private byte[] _line(long location)
+    {
+        byte[] arena = _arenas.get((int) (location >>> 32));
+        int offset = (int) location;
+        int start = offset + LENGTH_BYTES;
+        return Arrays.copyOfRange(arena, start, start + _length(arena, offset));
+    }
+
+    /**
+     * Compares lines with equal prefixes. If either line is at most 8 bytes
+     * long, it is a prefix of the other (prefixes are padded with zero bytes),
+     * so lengths decide; otherwise rest of the lines is compared.
+     */
+    private int _compare(long location1, long location2)
+    {
+        final byte[] arena1 = _arenas.get((int) (location1 >>> 32));
+        final byte[] arena2 = _arenas.get((int) (location2 >>> 32));
+        final int offset1 = (int) location1;
+        final int offset2 = (int) location2;
+        final int len1 = _length(arena1, offset1);
+        final int len2 = _length(arena2, offset2);
+        final int len = Math.min(len1, len2);
+        final int start1 = offset1 + LENGTH_BYTES;
+        final int start2 = offset2 + LENGTH_BYTES;
+        for (int i = 8; i < len; ++i) {
+            int diff = (arena1[start1 + i] & 0xFF) - (arena2[start2 + i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return len1 - len2;
+    }
+
+    private int _compare(long prefix1, long location1, long prefix2, long location2)
+    {
+        if (prefix1 != prefix2) {
+            return Long.compareUnsigned(prefix1, prefix2);
+        }
+        return _compare(location1, location2);
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods, sorting
+    /**********************************************************************
+     */
+
+    /**
+     * Three-way quicksort of entries <code>[from, to)</code>, so that runs of
+     * equal lines (common in n-gram data) are not compared again
+     */
+    private void _sort(int from, int to)
+    {
+        final long[] e = _entries;
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            _medianToFront(from, (from + to) >>> 1, to - 1);
+            final long pivotPrefix = e[from << 1];
+            final long pivotLocation = e[(from << 1) + 1];
+            int lt = from;
+            int i = from + 1;
+            int gt = to - 1;
+            while (i <= gt) {
+                int cmp = _compare(e[i << 1], e[(i << 1) + 1], pivotPrefix, pivotLocation);
+                if (cmp < 0) {
+                    _swap(lt++, i++);
+                } else if (cmp > 0) {
+                    _swap(i, gt--);
+                } else {
+                    ++i;
+                }
+            }
+            // recurse into smaller side, loop on the larger one
+            if (lt - from < to - gt - 1) {
+                _sort(from, lt);
+                from = gt + 1;
+            } else {
+                _sort(gt + 1, to);
+                to = lt;
+            }
+        }
+        for (int i = from + 1; i < to; ++i) {
+            final long prefix = e[i << 1];
+            final long location = e[(i << 1) + 1];
+            int j = i - 1;
+            while (j >= from && _compare(e[j << 1], e[(j << 1) + 1], prefix, location) > 0) {
+                e[(j + 1) << 1] = e[j << 1];
+                e[((j + 1) << 1) + 1] = e[(j << 1) + 1];
+                --j;
+            }
+            e[(j + 1) << 1] = prefix;
+            e[((j + 1) << 1) + 1] = location;
+        }
+    }
+
+    /**
+     * Moves median of entries at given indexes to index <code>a</code>
+     */
+    private void _medianToFront(int a, int b, int c)
+    {
+        if (_compareAt(b, a) < 0) {
+            _swap(a, b);
+        }
+        if (_compareAt(c, b) < 0) {
+            _swap(b, c);
+            if (_compareAt(b, a) < 0) {
+                _swap(a, b);
+            }
+        }
+        // a <= b <= c; median is now at b
+        _swap(a, b);
+    }
+
+    private int _compareAt(int i, int j)
+    {
+        final long[] e = _entries;
+        return _compare(e[i << 1], e[(i << 1) + 1], e[j << 1], e[(j << 1) + 1]);
+    }
+
+    private void _swap(int i, int j)
+    {
+        final long[] e = _entries;
+        final int a = i << 1;
+        final int b = j << 1;
+        long tmp = e[a];
+        e[a] = e[b];
+        e[b] = tmp;
+        tmp = e[a+1];
+        e[a+1] = e[b+1];
+        e[b+1] = tmp;
+    }
+}
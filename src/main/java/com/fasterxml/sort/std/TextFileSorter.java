@@ -32,6 +32,11 @@ public class TextFileSorter extends Sorter<byte[]>
                 new ByteArrayComparator());
     }
 
+    @Override
+    protected PresortBuffer<byte[]> _createPresortBuffer(long maxMemory) {
+        return _config.isArenaPresort() ? new LineArena(maxMemory) : null;
+    }
+
     /*
     /********************************************************************** 
     /* Main method for simple command-line operation for line-based
@@ -0,0 +1,197 @@
+package com.fasterxml.sort.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.SortKey;
+
+/**
+ * {@link DataWriter} that keeps only the first <code>n</code> entries written
+ * to it, in order of their {@link SortKey}, in a bounded binary heap: memory
+ * used depends on <code>n</code> only, and nothing is ever written to disk.
+ * Entries with equal keys are kept in the order they were written, so results
+ * are the same as those of a full (stable) sort cut to <code>n</code> entries.
+ *<p>
+ * Heap is ordered by keys in a <code>double[]</code>, with entries only
+ * carried along: key of an entry is computed once, when it is written, and
+ * heap operations compare plain numbers. Heap keeps the entry that would be
+ * sorted last at its root, so most entries of a long input are rejected after
+ * a single comparison.
+ */
+public class TopNCollector<T> extends DataWriter<T>
+{
+    protected final SortKey<T> _sortKey;
+
+    protected final int _maxEntries;
+
+    /**
+     * Keys of entries kept, as a heap; root is the one sorted last
+     */
+    protected double[] _keys;
+
+    /**
+     * Sequence number of each entry in heap, to order entries with equal keys
+     */
+    protected long[] _seqs;
+
+    /**
+     * Entries kept, at the same positions as their keys
+     */
+    protected Object[] _items;
+
+    protected int _size;
+
+    /**
+     * Number of entries written so far
+     */
+    protected long _count;
+
+    public TopNCollector(SortKey<T> sortKey, int n)
+    {
+        if (n < 1) {
+            throw new IllegalArgumentException("Illegal number of entries to keep: " + n);
+        }
+        _sortKey = sortKey;
+        _maxEntries = n;
+        // grown as needed, so a large n costs nothing for short inputs
+        int initial = Math.min(n, 1024);
+        _keys = new double[initial];
+        _seqs = new long[initial];
+        _items = new Object[initial];
+    }
+
+    @Override
+    public void writeEntry(T item) {
+        add(_sortKey.keyFor(item), item);
+    }
+
+    /**
+     * Method for adding an entry with a key computed by caller, bypassing the
+     * {@link SortKey} of this collector.
+     */
+    public void add(double key, T item)
+    {
+        final long seq = _count++;
+        if (_size < _maxEntries) {
+            if (_size == _keys.length) {
+                int size = (int) Math.min(_maxEntries, _size * 2L);
+                _keys = Arrays.copyOf(_keys, size);
+                _seqs = Arrays.copyOf(_seqs, size);
+                _items = Arrays.copyOf(_items, size);
+            }
+            int i = _size++;
+            _set(i, key, seq, item);
+            _siftUp(_keys, _seqs, _items, i);
+            return;
+        }
+        // later entries only replace ones that sort strictly after them
+        if (Double.compare(key, _keys[0]) < 0) {
+            _set(0, key, seq, item);
+            _siftDown(_keys, _seqs, _items, _size, 0);
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    /**
+     * @return Number of entries written, including ones not kept
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * @return Entries kept, in sort order
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> sortedEntries()
+    {
+        // heap sort of a copy: root is always the entry sorted last of those left
+        final double[] keys = Arrays.copyOf(_keys, _size);
+        final long[] seqs = Arrays.copyOf(_seqs, _size);
+        final Object[] items = Arrays.copyOf(_items, _size);
+        Object[] sorted = new Object[_size];
+        for (int size = _size; size > 0; ) {
+            sorted[--size] = items[0];
+            keys[0] = keys[size];
+            seqs[0] = seqs[size];
+            items[0] = items[size];
+            _siftDown(keys, seqs, items, size, 0);
+        }
+        List<T> result = new ArrayList<T>(_size);
+        for (Object item : sorted) {
+            result.add((T) item);
+        }
+        return result;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private void _set(int i, double key, long seq, Object item)
+    {
+        _keys[i] = key;
+        _seqs[i] = seq;
+        _items[i] = item;
+    }
+
+    /**
+     * Compares entries at given heap positions in sort order, equal keys by sequence
+     */
+    private static int _compare(double[] keys, long[] seqs, int i, int j)
+    {
+        int diff = Double.compare(keys[i], keys[j]);
+        return (diff != 0) ? diff : Long.compare(seqs[i], seqs[j]);
+    }
+
+    private static void _swap(double[] keys, long[] seqs, Object[] items, int i, int j)
+    {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long seq = seqs[i];
+        seqs[i] = seqs[j];
+        seqs[j] = seq;
+        Object item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+    }
+
+    private static void _siftUp(double[] keys, long[] seqs, Object[] items, int i)
+    {
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (_compare(keys, seqs, i, parent) <= 0) {
+                return;
+            }
+            _swap(keys, seqs, items, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void _siftDown(double[] keys, long[] seqs, Object[] items, int size, int i)
+    {
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && _compare(keys, seqs, child + 1, child) > 0) {
+                ++child;
+            }
+            if (_compare(keys, seqs, child, i) <= 0) {
+                return;
+            }
+            _swap(keys, seqs, items, i, child);
+            i = child;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package dict.build;
+
+import com.fasterxml.sort.SortConfig;
+
+/**
+ * Configuration object used for changing details of the dictionary
+ * building process. Default settings are usable, so usually an instance
+ * is created without arguments and passed to {@link FastBuilder} as is.
+ */
+public class BuildConfig
+{
+    /**
+     * By default the in-memory n-gram table may use up to 1 gig (but never
+     * more than half of the heap) before falling back to external sorting.
+     */
+    public final static long DEFAULT_NGRAM_TABLE_MEMORY = 1024L * 1024 * 1024;
+
+    /**
+     * By default the raw file is read by a single thread
+     */
+    public final static int DEFAULT_INGEST_THREADS = 1;
+
+    /**
+     * By default candidate words are scored by a single thread
+     */
+    public final static int DEFAULT_SCORING_THREADS = 1;
+
+    /**
+     * By default all extracted words are written, not just the most frequent ones
+     */
+    public final static int DEFAULT_TOP_K = 0;
+
+    /**
+     * By default all words are kept, however rare
+     */
+    public final static int DEFAULT_MIN_FREQ = 1;
+
+    /**
+     * By default approximate counts may be off by 1/100000 of all n-grams counted...
+     */
+    public final static double DEFAULT_SKETCH_EPSILON = 0.00001;
+
+    /**
+     * ... for no more than 1% of the n-grams
+     */
+    public final static double DEFAULT_SKETCH_DELTA = 0.01;
+
+    /**
+     * Ways of computing frequencies and neighbor entropies of words
+     */
+    public enum StatsEngine {
+        /**
+         * Count n-grams in a packed in-memory table, or generate n-gram lines and sort
+         * them externally if the table does not fit in memory
+         */
+        NGRAM,
+
+        /**
+         * Build a suffix array over the whole text; needs memory linear to the
+         * size of text, and falls back to external sorting if that is not available
+         */
+        SUFFIX_ARRAY,
+
+        /**
+         * Count n-grams in character tries, one over sentences and one over reversed
+         * sentences, which several threads can fill at the same time; falls back to
+         * external sorting if the tries do not fit in memory
+         */
+        TRIE,
+
+        /**
+         * Count n-grams approximately, with Count-Min sketches and tables of the most
+         * frequent n-grams, in memory that does not depend on the size of text and
+         * without temporary files; rare words are left out, and counts of others
+         * may be too high within configured error bounds
+         */
+        SKETCH
+    }
+
+    protected long _ngramTableMemory;
+
+    protected int _ingestThreads;
+
+    protected int _scoringThreads;
+
+    protected SortConfig _sortConfig;
+
+    protected StatsEngine _statsEngine;
+
+    protected int _minFreq;
+
+    protected int _topK;
+
+    protected boolean _pipelinedAggregation;
+
+    protected double _sketchEpsilon;
+
+    protected double _sketchDelta;
+
+    /*
+    /************************************************************************
+    /* Construction
+    /************************************************************************
+     */
+
+    public BuildConfig()
+    {
+        _ngramTableMemory = Math.min(DEFAULT_NGRAM_TABLE_MEMORY, Runtime.getRuntime().maxMemory() >> 1);
+        _ingestThreads = DEFAULT_INGEST_THREADS;
+        _scoringThreads = DEFAULT_SCORING_THREADS;
+        // n-gram lines are pre-sorted packed into large arrays
+        _sortConfig = new SortConfig().withArenaPresort(true);
+        _statsEngine = StatsEngine.NGRAM;
+        _minFreq = DEFAULT_MIN_FREQ;
+        _topK = DEFAULT_TOP_K;
+        _pipelinedAggregation = true;
+        _sketchEpsilon = DEFAULT_SKETCH_EPSILON;
+        _sketchDelta = DEFAULT_SKETCH_DELTA;
+    }
+
+    protected BuildConfig(BuildConfig base)
+    {
+        _ngramTableMemory = base._ngramTableMemory;
+        _ingestThreads = base._ingestThreads;
+        _scoringThreads = base._scoringThreads;
+        _sortConfig = base._sortConfig;
+        _statsEngine = base._statsEngine;
+        _minFreq = base._minFreq;
+        _topK = base._topK;
+        _pipelinedAggregation = base._pipelinedAggregation;
+        _sketchEpsilon = base._sketchEpsilon;
+        _sketchDelta = base._sketchDelta;
+    }
+
+    /*
+    /************************************************************************
+    /* Accessors
+    /************************************************************************
+     */
+
+    public long getNgramTableMemory() { return _ngramTableMemory; }
+
+    public int getIngestThreads() { return _ingestThreads; }
+
+    public int getScoringThreads() { return _scoringThreads; }
+
+    public SortConfig getSortConfig() { return _sortConfig; }
+
+    public StatsEngine getStatsEngine() { return _statsEngine; }
+
+    public int getMinFreq() { return _minFreq; }
+
+    public int getTopK() { return _topK; }
+
+    public boolean isPipelinedAggregation() { return _pipelinedAggregation; }
+
+    public double getSketchEpsilon() { return _sketchEpsilon; }
+
+    public double getSketchDelta() { return _sketchDelta; }
+
+    /*
+    /************************************************************************
+    /* Fluent construction methods
+    /************************************************************************
+     */
+
+    /**
+     * Method for constructing configuration instance that defines how much memory
+     * the in-memory n-gram table (or suffix array) may take. If the table would grow
+     * past this limit, n-grams are counted through the external sort instead.
+     *
+     * @param maxMem Maximum memory for the n-gram table; 0 to always use external sorting
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withNgramTableMemory(long maxMem)
+    {
+        if (maxMem == _ngramTableMemory) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._ngramTableMemory = maxMem;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that defines how many threads
+     * read and tokenize the raw file. With more than one thread, file is split into
+     * ranges that are processed in parallel; results are the same as with one thread.
+     *
+     * @param threads Number of threads; 1 to read the file sequentially
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withIngestThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Illegal number of threads: " + threads);
+        }
+        if (threads == _ingestThreads) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._ingestThreads = threads;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that defines how many threads
+     * score candidate words (PMI against their splits, and thresholds) when
+     * extracting words. With more than one thread, candidates are scored in batches
+     * on a fork-join pool; words are written in the same order as with one thread.
+     *
+     * @param threads Number of threads; 1 to score on the calling thread
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withScoringThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Illegal number of threads: " + threads);
+        }
+        if (threads == _scoringThreads) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._scoringThreads = threads;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that uses given configuration
+     * for all external sorts (memory to use, temporary files and so on).
+     *
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withSortConfig(SortConfig sortConfig)
+    {
+        if (sortConfig == _sortConfig) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._sortConfig = sortConfig;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that uses given way of computing
+     * word frequencies and entropies.
+     *
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withStatsEngine(StatsEngine engine)
+    {
+        if (engine == _statsEngine) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._statsEngine = engine;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that defines whether n-gram
+     * lines sorted externally are aggregated into word frequencies and entropies
+     * as they come out of the final merge (the default), or are first written to
+     * <code>right_ngram_sort.data</code> and <code>left_ngram_sort.data</code>
+     * and read back from there, which takes one more pass over the sorted lines
+     * but leaves the files around (front-coded, see
+     * {@link com.fasterxml.sort.std.FrontCodedLineWriter}).
+     *
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withPipelinedAggregation(boolean state)
+    {
+        if (state == _pipelinedAggregation) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._pipelinedAggregation = state;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that drops words occurring
+     * less than given number of times. With more than 1, the external sort path
+     * first finds frequent words with one pass over the raw file per word length
+     * (a longer word can only be frequent if its prefix and suffix are), and then
+     * only generates n-gram lines for those, which can make the sort much smaller.
+     * Words below the limit are left out of the statistics of all engines alike,
+     * but still count towards the number of distinct words used as the total
+     * for PMI, so that scores of words kept do not change: engines count all
+     * words before dropping rare ones, and when the external sort path prunes
+     * n-gram lines, the number is estimated while finding frequent words.
+     *
+     * @param minFreq Minimum number of occurrences; 1 to keep all words
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withMinFreq(int minFreq)
+    {
+        if (minFreq < 1) {
+            throw new IllegalArgumentException("Illegal minimum frequency: " + minFreq);
+        }
+        if (minFreq == _minFreq) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._minFreq = minFreq;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that only keeps the given number
+     * of most frequent extracted words. These are kept in a bounded heap while words
+     * are extracted and written out sorted, so neither the unsorted words file nor
+     * an external sort of it is needed.
+     *
+     * @param topK Number of words to keep; 0 to keep all of them
+     * @return New instance, or this instance if the setting did not change
+     */
+    public BuildConfig withTopK(int topK)
+    {
+        if (topK < 0) {
+            throw new IllegalArgumentException("Illegal number of words to keep: " + topK);
+        }
+        if (topK == _topK) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._topK = topK;
+        return config;
+    }
+
+    /**
+     * Method for constructing configuration instance that defines error bounds of
+     * {@link StatsEngine#SKETCH}: an approximate count exceeds the actual count by
+     * more than <code>epsilon</code> times the number of all n-grams counted with
+     * probability of at most <code>delta</code>. Each sketch takes
+     * <code>4 * ceil(e / epsilon) * ceil(ln(1 / delta))</code> bytes, in addition
+     * to the n-gram table memory.
+     *
+     * @return New instance, or this instance if the settings did not change
+     */
+    public BuildConfig withSketchError(double epsilon, double delta)
+    {
+        if (!(epsilon > 0.0 && epsilon < 1.0) || !(delta > 0.0 && delta < 1.0)) {
+            throw new IllegalArgumentException("Illegal error bounds: epsilon " + epsilon + ", delta " + delta);
+        }
+        if (epsilon == _sketchEpsilon && delta == _sketchDelta) {
+            return this;
+        }
+        BuildConfig config = new BuildConfig(this);
+        config._sketchEpsilon = epsilon;
+        config._sketchDelta = delta;
+        return config;
+    }
+}
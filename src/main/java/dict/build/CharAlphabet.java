@@ -0,0 +1,135 @@
+package dict.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Dense numbering of the characters that occur in a corpus, so n-grams can be
+ * packed into a few bits per character.
+ *<p>
+ * Ids are handed out in UTF-8 byte order of the characters, which means that
+ * comparing id sequences gives the same order as sorting the encoded text
+ * with {@link com.fasterxml.sort.std.TextFileSorter}. Id {@link #PAD} is never
+ * assigned to a character and id {@link #BOUNDARY} stands for the
+ * <code>$</code> that marks both ends of a sentence.
+ */
+public class CharAlphabet
+{
+    public final static int PAD = 0;
+
+    public final static int BOUNDARY = 1;
+
+    public final static char BOUNDARY_CHAR = '$';
+
+    /**
+     * Character for each id
+     */
+    private final char[] _chars;
+
+    /**
+     * Id for each character, or {@link #PAD} if the character is not part of alphabet
+     */
+    private final int[] _ids;
+
+    private final int _bits;
+
+    public CharAlphabet(boolean[] seen)
+    {
+        _ids = new int[Character.MAX_VALUE + 1];
+        int count = BOUNDARY + 1;
+        for (int rank = 0; rank <= Character.MAX_VALUE; ++rank) {
+            if (seen[_charForRank(rank)]) {
+                ++count;
+            }
+        }
+        _chars = new char[count];
+        _chars[BOUNDARY] = BOUNDARY_CHAR;
+        int id = BOUNDARY + 1;
+        for (int rank = 0; rank <= Character.MAX_VALUE; ++rank) {
+            char c = _charForRank(rank);
+            if (seen[c]) {
+                _chars[id] = c;
+                _ids[c] = id++;
+            }
+        }
+        _bits = 32 - Integer.numberOfLeadingZeros(count - 1);
+    }
+
+    /**
+     * Scans given UTF-8 file and constructs alphabet of all the Chinese characters in it.
+     */
+    public static CharAlphabet scan(File rawFile) throws IOException
+    {
+        boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+        try (Reader reader = Files.newReader(rawFile, Charsets.UTF_8)) {
+            char[] buffer = new char[16000];
+            int count;
+            while ((count = reader.read(buffer)) >= 0) {
+                for (int i = 0; i < count; ++i) {
+                    if (FastBuilder.isChinese(buffer[i])) {
+                        seen[buffer[i]] = true;
+                    }
+                }
+            }
+        }
+        return new CharAlphabet(seen);
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors
+    /**********************************************************************
+     */
+
+    /**
+     * @return Id of given character, or {@link #PAD} if it is not in this alphabet
+     */
+    public int id(char c) {
+        return _ids[c];
+    }
+
+    public char charAt(int id) {
+        return _chars[id];
+    }
+
+    /**
+     * @return Number of ids in use, including {@link #PAD} and {@link #BOUNDARY}
+     */
+    public int size() {
+        return _chars.length;
+    }
+
+    /**
+     * @return Number of bits needed to store any id of this alphabet
+     */
+    public int bits() {
+        return _bits;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * UTF-16 code units sort in UTF-8 (code point) order except for surrogates,
+     * which encode characters above all of the BMP; so move them to the end.
+     */
+    private static char _charForRank(int rank)
+    {
+        if (rank < Character.MIN_SURROGATE) {
+            return (char) rank;
+        }
+        int afterSurrogates = Character.MAX_VALUE + 1 - Character.MAX_SURROGATE - 1;
+        int surrogates = Character.MAX_SURROGATE - Character.MIN_SURROGATE + 1;
+        if (rank < Character.MIN_SURROGATE + afterSurrogates) {
+            return (char) (rank + surrogates);
+        }
+        return (char) (rank - afterSurrogates);
+    }
+}
@@ -0,0 +1,209 @@
+package dict.build;
+
+/**
+ * Counter keyed by character (or any int, like a code point), using only
+ * primitive arrays: up to {@value #INLINE_KEYS} keys are kept in small arrays
+ * that are scanned linearly, which is fastest for the typical word with few
+ * distinct neighbors; more keys switch to an open-addressing table.
+ *<p>
+ * Instances are meant to be reused: {@link #reset} keeps the arrays, so
+ * counting neighbors of one word after another allocates nothing once the
+ * counter has grown to the size needed. Not thread-safe.
+ */
+public class CharCounter
+{
+    private final static int INLINE_KEYS = 8;
+
+    /**
+     * Table is grown when it gets this full (in percent)
+     */
+    private final static int MAX_FILL = 60;
+
+    private int[] _keys = new int[INLINE_KEYS];
+
+    /**
+     * Counts for each slot; in table mode 0 means slot is empty
+     */
+    private int[] _counts = new int[INLINE_KEYS];
+
+    /**
+     * In table mode, slots in use, in order of insertion; so that resetting and
+     * iterating do not depend on the capacity, which only grows
+     */
+    private int[] _used;
+
+    /**
+     * Number of distinct keys
+     */
+    private int _size;
+
+    private int _total;
+
+    /**
+     * Whether keys are in an open-addressing table, instead of first {@link #_size} slots
+     */
+    private boolean _hashed;
+
+    /**
+     * Slot of the key counted last, or -1; equal keys often come in runs
+     * (like neighbors from sorted n-grams), which then need no lookup
+     */
+    private int _lastSlot = -1;
+
+    public void incr(int key) {
+        incrBy(key, 1);
+    }
+
+    /**
+     * @param delta Amount to add; must be positive
+     */
+    public void incrBy(int key, int delta)
+    {
+        _total += delta;
+        if (_lastSlot >= 0 && _keys[_lastSlot] == key) {
+            _counts[_lastSlot] += delta;
+            return;
+        }
+        if (!_hashed) {
+            final int[] keys = _keys;
+            for (int i = 0; i < _size; ++i) {
+                if (keys[i] == key) {
+                    _counts[i] += delta;
+                    _lastSlot = i;
+                    return;
+                }
+            }
+            if (_size < keys.length) {
+                keys[_size] = key;
+                _counts[_size] = delta;
+                _lastSlot = _size++;
+                return;
+            }
+            _toTable();
+        }
+        final int mask = _keys.length - 1;
+        int slot = _hash(key) & mask;
+        while (_counts[slot] != 0) {
+            if (_keys[slot] == key) {
+                _counts[slot] += delta;
+                _lastSlot = slot;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        _keys[slot] = key;
+        _counts[slot] = delta;
+        _used[_size] = slot;
+        _lastSlot = slot;
+        if (++_size * 100 > _keys.length * MAX_FILL) {
+            _rehash(_keys.length << 1);
+            _lastSlot = -1;
+        }
+    }
+
+    public int get(int key)
+    {
+        if (!_hashed) {
+            for (int i = 0; i < _size; ++i) {
+                if (_keys[i] == key) {
+                    return _counts[i];
+                }
+            }
+            return 0;
+        }
+        final int mask = _keys.length - 1;
+        int slot = _hash(key) & mask;
+        while (_counts[slot] != 0) {
+            if (_keys[slot] == key) {
+                return _counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return Number of distinct keys counted
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return Sum of all counts
+     */
+    public int total() {
+        return _total;
+    }
+
+    /**
+     * @return Entropy (in bits) of the distribution of keys; 0 if nothing was counted
+     */
+    public double entropy()
+    {
+        if (!_hashed) {
+            return ScoringKernel.entropy(_counts, 0, _size, _total);
+        }
+        final int[] counts = _counts;
+        double sum = 0;
+        for (int i = 0; i < _size; ++i) {
+            sum += ScoringKernel.xLog2X(counts[_used[i]]);
+        }
+        return ScoringKernel.entropy(sum, _total);
+    }
+
+    /**
+     * Removes all counts, keeping the arrays for reuse.
+     */
+    public void reset()
+    {
+        if (_hashed) {
+            for (int i = 0; i < _size; ++i) {
+                _counts[_used[i]] = 0;
+            }
+        }
+        _size = 0;
+        _total = 0;
+        _lastSlot = -1;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private void _toTable()
+    {
+        _hashed = true;
+        _rehash(INLINE_KEYS << 2);
+    }
+
+    private void _rehash(int capacity)
+    {
+        final int[] oldKeys = _keys;
+        final int[] oldCounts = _counts;
+        final int[] oldUsed = _used;
+        _keys = new int[capacity];
+        _counts = new int[capacity];
+        _used = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < _size; ++i) {
+            // in inline mode, the first _size slots are the ones in use
+            int old = (oldUsed == null) ? i : oldUsed[i];
+            int slot = _hash(oldKeys[old]) & mask;
+            while (_counts[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            _keys[slot] = oldKeys[old];
+            _counts[slot] = oldCounts[old];
+            _used[i] = slot;
+        }
+    }
+
+    private static int _hash(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,313 @@
+package dict.build;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trie over dense {@link CharAlphabet} ids that counts how many inserted
+ * paths pass through each node, using only primitive arrays: every node has
+ * a count, its character id, and links to its first child and next sibling;
+ * children are found through an open-addressing table keyed by parent node
+ * and character id.
+ *<p>
+ * The trie is split into sub-tries by the first character of a path, each
+ * with its own arrays and lock, so several threads can insert at the same
+ * time, mostly without contention. Memory of all sub-tries together is
+ * limited; {@link PackedNgramTable.TableFullException} is thrown when an
+ * insertion would need more.
+ */
+public class CharTrie
+{
+    /**
+     * Number of sub-tries; power of two
+     */
+    private final static int STRIPES = 64;
+
+    private final CharAlphabet _alphabet;
+
+    private final long _maxMemory;
+
+    /**
+     * Memory currently allocated by all sub-tries
+     */
+    private final AtomicLong _memory = new AtomicLong();
+
+    private final SubTrie[] _stripes;
+
+    public CharTrie(CharAlphabet alphabet, long maxMemory) throws PackedNgramTable.TableFullException
+    {
+        _alphabet = alphabet;
+        _maxMemory = maxMemory;
+        _stripes = new SubTrie[STRIPES];
+        for (int i = 0; i < STRIPES; ++i) {
+            _stripes[i] = new SubTrie();
+        }
+    }
+
+    /**
+     * Adds a path, incrementing counts of all nodes along it. Safe to call from
+     * several threads at the same time.
+     *
+     * @param ids Character ids of the path; none may be {@link CharAlphabet#PAD}
+     */
+    public void insert(int[] ids, int off, int len) throws PackedNgramTable.TableFullException
+    {
+        if (len == 0) {
+            return;
+        }
+        SubTrie stripe = _stripes[ids[off] & (STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.insert(ids, off, len);
+        }
+    }
+
+    /**
+     * @return Memory allocated by the trie
+     */
+    public long memory() {
+        return _memory.get();
+    }
+
+    /*
+    /**********************************************************************
+    /* Walking
+    /**********************************************************************
+     */
+
+    /**
+     * Callback for {@link #walk}
+     */
+    public interface Visitor
+    {
+        /**
+         * Called for every node, in order of paths.
+         *
+         * @param path Character ids of the path to node
+         * @param depth Length of the path
+         * @param count Count of the node
+         * @param childCounts Counts of children of the node
+         * @param children Number of children
+         *
+         * @return Whether to visit children of the node
+         */
+        public boolean node(int[] path, int depth, int count, int[] childCounts, int children)
+            throws IOException;
+    }
+
+    /**
+     * Visits all nodes in order of their paths (same as order of words in sorted
+     * text, since ids follow the character order), parents before children, but
+     * not nodes for {@link CharAlphabet#BOUNDARY} or deeper than <code>maxDepth</code>.
+     * Must not be called concurrently with {@link #insert}.
+     */
+    public void walk(Visitor visitor, int maxDepth) throws IOException
+    {
+        final int size = _alphabet.size();
+        final int[] path = new int[maxDepth];
+        // per depth: children of the current node as (id << 32 | node), and their counts
+        final long[][] children = new long[maxDepth + 1][size];
+        final int[][] counts = new int[maxDepth + 1][size];
+        for (int id = CharAlphabet.BOUNDARY; id < size; ++id) {
+            SubTrie stripe = _stripes[id & (STRIPES - 1)];
+            int node = stripe.child(0, id);
+            if (node > 0) {
+                path[0] = id;
+                _walk(stripe, node, 1, maxDepth, path, children, counts, visitor);
+            }
+        }
+    }
+
+    private void _walk(SubTrie stripe, int node, int depth, int maxDepth, int[] path,
+            long[][] children, int[][] counts, Visitor visitor)
+        throws IOException
+    {
+        final long[] kids = children[depth];
+        final int[] kidCounts = counts[depth];
+        int n = 0;
+        for (int child = stripe._firstChild[node]; child != 0; child = stripe._nextSibling[child]) {
+            kids[n++] = ((long) stripe._label[child] << 32) | child;
+        }
+        Arrays.sort(kids, 0, n);
+        for (int i = 0; i < n; ++i) {
+            kidCounts[i] = stripe._count[(int) kids[i]];
+        }
+        if (!visitor.node(path, depth, stripe._count[node], kidCounts, n) || depth == maxDepth) {
+            return;
+        }
+        for (int i = 0; i < n; ++i) {
+            path[depth] = (int) (kids[i] >>> 32);
+            if (path[depth] == CharAlphabet.BOUNDARY) {
+                // end of sentence; no path continues past it
+                continue;
+            }
+            _walk(stripe, (int) kids[i], depth + 1, maxDepth, path, children, counts, visitor);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private void _reserve(long bytes) throws PackedNgramTable.TableFullException
+    {
+        if (_memory.addAndGet(bytes) > _maxMemory) {
+            _memory.addAndGet(-bytes);
+            throw new PackedNgramTable.TableFullException(_maxMemory);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Sub-trie for paths starting with some of the characters; node 0 is its root.
+     * Not thread-safe by itself.
+     */
+    private final class SubTrie
+    {
+        private final static int INITIAL_NODES = 1024;
+
+        /**
+         * Children table is grown when it gets this full (in percent)
+         */
+        private final static int MAX_FILL = 60;
+
+        private int[] _count;
+
+        private int[] _label;
+
+        private int[] _firstChild;
+
+        private int[] _nextSibling;
+
+        private int _nodes = 1;
+
+        /**
+         * Children table: keys are <code>parent << 32 | id</code>, never 0 since
+         * ids are positive; values are child nodes
+         */
+        private long[] _childKeys;
+
+        private int[] _childNodes;
+
+        private int _growAt;
+
+        SubTrie() throws PackedNgramTable.TableFullException
+        {
+            _reserve(16L * INITIAL_NODES + 12L * INITIAL_NODES * 2);
+            _count = new int[INITIAL_NODES];
+            _label = new int[INITIAL_NODES];
+            _firstChild = new int[INITIAL_NODES];
+            _nextSibling = new int[INITIAL_NODES];
+            _childKeys = new long[INITIAL_NODES * 2];
+            _childNodes = new int[INITIAL_NODES * 2];
+            _growAt = INITIAL_NODES * 2 * MAX_FILL / 100;
+        }
+
+        void insert(int[] ids, int off, int len) throws PackedNgramTable.TableFullException
+        {
+            int node = 0;
+            for (int i = off, end = off + len; i < end; ++i) {
+                final int id = ids[i];
+                final long key = ((long) node << 32) | id;
+                final int mask = _childKeys.length - 1;
+                int slot = _hash(key) & mask;
+                int child = 0;
+                while (_childKeys[slot] != 0L) {
+                    if (_childKeys[slot] == key) {
+                        child = _childNodes[slot];
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (child == 0) {
+                    if (_nodes == _count.length) {
+                        _growNodes();
+                    }
+                    if (_nodes >= _growAt) {
+                        _growChildren();
+                        slot = _hash(key) & (_childKeys.length - 1);
+                        while (_childKeys[slot] != 0L) {
+                            slot = (slot + 1) & (_childKeys.length - 1);
+                        }
+                    }
+                    child = _nodes++;
+                    _label[child] = id;
+                    _nextSibling[child] = _firstChild[node];
+                    _firstChild[node] = child;
+                    _childKeys[slot] = key;
+                    _childNodes[slot] = child;
+                }
+                ++_count[child];
+                node = child;
+            }
+        }
+
+        /**
+         * @return Child of given node for given character id, or 0 if there is none
+         */
+        int child(int node, int id)
+        {
+            final long key = ((long) node << 32) | id;
+            final int mask = _childKeys.length - 1;
+            int slot = _hash(key) & mask;
+            while (_childKeys[slot] != 0L) {
+                if (_childKeys[slot] == key) {
+                    return _childNodes[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+
+        private void _growNodes() throws PackedNgramTable.TableFullException
+        {
+            final int size = _count.length;
+            if (size >= (1 << 29)) {
+                throw new PackedNgramTable.TableFullException(_maxMemory);
+            }
+            // old arrays stay around until copied
+            _reserve(16L * size * 2);
+            _count = Arrays.copyOf(_count, size << 1);
+            _label = Arrays.copyOf(_label, size << 1);
+            _firstChild = Arrays.copyOf(_firstChild, size << 1);
+            _nextSibling = Arrays.copyOf(_nextSibling, size << 1);
+            _memory.addAndGet(-16L * size);
+        }
+
+        private void _growChildren() throws PackedNgramTable.TableFullException
+        {
+            final int size = _childKeys.length;
+            _reserve(12L * size * 2);
+            final long[] oldKeys = _childKeys;
+            final int[] oldNodes = _childNodes;
+            _childKeys = new long[size << 1];
+            _childNodes = new int[size << 1];
+            final int mask = (size << 1) - 1;
+            for (int i = 0; i < size; ++i) {
+                if (oldKeys[i] != 0L) {
+                    int slot = _hash(oldKeys[i]) & mask;
+                    while (_childKeys[slot] != 0L) {
+                        slot = (slot + 1) & mask;
+                    }
+                    _childKeys[slot] = oldKeys[i];
+                    _childNodes[slot] = oldNodes[i];
+                }
+            }
+            _growAt = (int) ((long) (size << 1) * MAX_FILL / 100);
+            _memory.addAndGet(-12L * size);
+        }
+    }
+
+    private static int _hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
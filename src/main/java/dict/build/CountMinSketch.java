@@ -0,0 +1,144 @@
+package dict.build;
+
+/**
+ * Count-Min sketch over packed n-gram keys (same 128-bit keys as used by
+ * {@link PackedNgramTable}), updated conservatively: each update only raises
+ * counters that are below the new estimate, which keeps overestimates
+ * much smaller than with plain Count-Min.
+ *<p>
+ * With width <code>ceil(e / epsilon)</code> and depth <code>ceil(ln(1 / delta))</code>,
+ * an estimate is never below the true count, and exceeds it by more than
+ * <code>epsilon</code> times the total of all counts with probability of at
+ * most <code>delta</code>. Memory used is fixed at construction.
+ */
+public class CountMinSketch
+{
+    private final int _width;
+
+    private final int _depth;
+
+    /**
+     * Counters, row by row
+     */
+    private final int[] _counters;
+
+    public CountMinSketch(int width, int depth)
+    {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("Illegal sketch size: " + width + "x" + depth);
+        }
+        _width = width;
+        _depth = depth;
+        _counters = new int[width * depth];
+    }
+
+    /**
+     * Creates a sketch with given error bounds.
+     *
+     * @param epsilon Maximum overestimate, as fraction of total of all counts
+     * @param delta Probability that the overestimate of a key is larger than that
+     */
+    public static CountMinSketch forError(double epsilon, double delta)
+    {
+        if (!(epsilon > 0.0 && epsilon < 1.0) || !(delta > 0.0 && delta < 1.0)) {
+            throw new IllegalArgumentException("Illegal error bounds: epsilon " + epsilon + ", delta " + delta);
+        }
+        long width = (long) Math.ceil(Math.E / epsilon);
+        int depth = (int) Math.ceil(Math.log(1.0 / delta));
+        if (width * depth > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Sketch for epsilon " + epsilon + " would be too big");
+        }
+        return new CountMinSketch((int) width, depth);
+    }
+
+    /**
+     * @return Memory used by counters of a sketch with given error bounds
+     */
+    public static long bytesFor(double epsilon, double delta) {
+        return 4L * (long) Math.ceil(Math.E / epsilon) * (int) Math.ceil(Math.log(1.0 / delta));
+    }
+
+    /*
+    /**********************************************************************
+    /* Counting
+    /**********************************************************************
+     */
+
+    /**
+     * Adds to the count of given key.
+     *
+     * @return New estimate of the count
+     */
+    public int add(long hi, long lo, int delta)
+    {
+        final int[] counters = _counters;
+        final long hash = _hash(hi, lo);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < _depth; ++row) {
+            estimate = Math.min(estimate, counters[_index(hash, row)]);
+        }
+        // saturate rather than overflow
+        final int target = (int) Math.min((long) estimate + delta, Integer.MAX_VALUE);
+        for (int row = 0; row < _depth; ++row) {
+            int index = _index(hash, row);
+            if (counters[index] < target) {
+                counters[index] = target;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * @return Estimated count of given key; never less than the actual count
+     */
+    public int estimate(long hi, long lo)
+    {
+        final long hash = _hash(hi, lo);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < _depth; ++row) {
+            estimate = Math.min(estimate, _counters[_index(hash, row)]);
+        }
+        return estimate;
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    public int getDepth() {
+        return _depth;
+    }
+
+    /**
+     * @return Memory used by the counters
+     */
+    public long bytes() {
+        return 4L * _counters.length;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private static long _hash(long hi, long lo)
+    {
+        long h = lo * 0x9E3779B97F4A7C15L ^ hi * 0xC2B2AE3D27D4EB4FL;
+        h ^= (h >>> 31);
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Index of the counter of given row, using double hashing: row <code>i</code>
+     * uses <code>h1 + i * h2</code>, which is as good as independent hashes here
+     */
+    private int _index(long hash, int row)
+    {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int h = h1 + row * h2;
+        return row * _width + ((h & 0x7FFFFFFF) % _width);
+    }
+}
@@ -5,10 +5,23 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
@@ -16,15 +29,20 @@ import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.sort.DataReader;
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.IterableSorterException;
 import com.fasterxml.sort.SortConfig;
+import com.fasterxml.sort.SortKey;
+import com.fasterxml.sort.std.FrontCodedLineReader;
+import com.fasterxml.sort.std.FrontCodedLineSorter;
+import com.fasterxml.sort.std.FrontCodedLineWriter;
 import com.fasterxml.sort.std.TextFileSorter;
+import com.fasterxml.sort.util.CollectionReader;
+import com.fasterxml.sort.util.TopNCollector;
 import com.google.common.base.Charsets;
-import com.google.common.base.Splitter;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
-import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
-import com.googlecode.concurrenttrees.radix.RadixTree;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
 
 /**
  * 
@@ -43,6 +61,44 @@ public class FastBuilder {
 	
 	public static final Pattern STOPWORDS_COMPILE = Pattern.compile("[\\p{Punct}\\pP\\p{Blank}\\p{Space}\\p{Cntrl}　" + stopwords + "]");
 	
+	/**
+	 * 多线程生成 ngram 时，每个线程每个方向至少用这么多内存攒排序小文件
+	 */
+	private static final long MIN_RUN_MEMORY = 4L * 1024 * 1024;
+
+	/**
+	 * 多线程打分时，每批交给线程池的候选词数
+	 */
+	private static final int SCORING_BATCH = 4096;
+	
+	private final BuildConfig _config;
+
+	/**
+	 * 统计出的不同词数，包括低于 minFreq、没写到 freq 文件里的词，extractWords 用它代替 freq 文件的行数，
+	 * 这样去掉低频词不会改变 PMI；近似统计和剪枝时是估计值，不知道时为 -1
+	 */
+	private long _distinctWords = -1;
+
+	/**
+	 * 上次扫描过的原始文件（长度、修改时间）和它的字符表。内存统计失败改用外部排序、或者分别生成
+	 * 左右 freq 文件时都要用字符表，文件没变就直接复用，不用再把整个文件读一遍
+	 */
+	private File _alphabetFile;
+
+	private long _alphabetFileLength;
+
+	private long _alphabetFileModified;
+
+	private CharAlphabet _alphabet;
+	
+	public FastBuilder() {
+	    this(new BuildConfig());
+	}
+	
+	public FastBuilder(BuildConfig config) {
+	    _config = config;
+	}
+	
 	/**
 	 * 输入的字符是否是汉字
 	 * @param a char
@@ -117,7 +173,7 @@ public class FastBuilder {
 	}
 
 	public void sortFile(File in, File out) {
-		try (final TextFileSorter sorter = new TextFileSorter(new SortConfig());
+		try (final TextFileSorter sorter = new TextFileSorter(_config.getSortConfig());
 		        final FileInputStream source = new FileInputStream(in);
 		        final PrintStream destination = new PrintStream(out, "UTF-8")) {
             sorter.sort(source, destination);
@@ -126,54 +182,403 @@ public class FastBuilder {
 		}
 	}
 
-	
+	/**
+	 * 按词排序 {@link NgramRecord} 二进制文件
+	 */
+	public void sortRecordFile(File in, File out) {
+		try (final NgramRecordSorter sorter = new NgramRecordSorter(_config.getSortConfig());
+		        final FileInputStream source = new FileInputStream(in);
+		        final FileOutputStream destination = new FileOutputStream(out)) {
+		    sorter.sort(source, destination);
+		} catch (IOException e) {
+		    LOG.error("sort error:", e);
+		}
+	}
+
+	/**
+	 * 不经过外部排序，直接在内存中统计 ngram 及其相邻字，生成排好序的 freq 文件。
+	 * 两个方向都需要时共用一次读取，内存各占一半。
+	 * 内存超出 {@link BuildConfig#getNgramTableMemory()} 时返回 false，由调用方改用外部排序。
+	 * 
+	 * @param rightNgramFreqSortFile 右邻字 freq 文件，不需要时为 null
+	 * @param leftNgramFreqSortFile 左邻字 freq 文件，不需要时为 null
+	 */
+	private boolean countInMemory(File rawFile, int maxLen, File rightNgramFreqSortFile, File leftNgramFreqSortFile) {
+	    _distinctWords = -1;
+	    long maxMem = _config.getNgramTableMemory();
+	    if (maxMem <= 0) {
+	        return false;
+	    }
+	    try {
+	        CharAlphabet alphabet = scanAlphabet(rawFile);
+	        if (BuildConfig.StatsEngine.SUFFIX_ARRAY == _config.getStatsEngine()) {
+	            countWithSuffixArray(rawFile, alphabet, maxLen, maxMem, rightNgramFreqSortFile, leftNgramFreqSortFile);
+	            return true;
+	        }
+	        if (BuildConfig.StatsEngine.TRIE == _config.getStatsEngine()) {
+	            countWithTrie(rawFile, alphabet, maxLen, maxMem, rightNgramFreqSortFile, leftNgramFreqSortFile);
+	            return true;
+	        }
+	        if (null != rightNgramFreqSortFile && null != leftNgramFreqSortFile) {
+	            maxMem >>= 1;
+	        }
+	        if (!PackedNgramCounter.fits(alphabet, maxLen)) {
+	            LOG.info("{} chars of {} bits do not fit in a packed key, using external sort", maxLen, alphabet.bits());
+	            return false;
+	        }
+	        // 近似统计：每个方向一个 Count-Min sketch，表里只留下出现次数最多的 ngram，表满了不再改用外部排序
+	        final boolean approximate = BuildConfig.StatsEngine.SKETCH == _config.getStatsEngine();
+	        final int threads = _config.getIngestThreads();
+	        // 近似统计时大表不会满，各线程的小表就从预算里分出一半，免得因为小表太小而改用外部排序
+	        final long tableMem = (approximate && threads > 1) ? (maxMem >> 1) : maxMem;
+	        final long partialMem = approximate ? (maxMem >> 1) / threads : maxMem / (threads << 2);
+	        final PackedNgramCounter right = (null == rightNgramFreqSortFile) ? null
+	                : new PackedNgramCounter(alphabet, maxLen, false, tableMem, approximate ? newSketch() : null);
+	        final PackedNgramCounter left = (null == leftNgramFreqSortFile) ? null
+	                : new PackedNgramCounter(alphabet, maxLen, true, tableMem, approximate ? newSketch() : null);
+	        if (approximate) {
+	            PackedNgramCounter counter = (null == right) ? left : right;
+	            int sides = (null == right || null == left) ? 1 : 2;
+	            LOG.info("approximate counting with {} sketches of {}x{} ({} bytes), n-gram tables up to {} bytes",
+	                    new Object[] { sides, counter.getSketch().getWidth(), counter.getSketch().getDepth(),
+	                    sides * counter.estimatorBytes(), sides * maxMem });
+	        }
+	        if (threads > 1) {
+	            // 每个线程先在自己的小表里统计，表满了或者读完一段再合并到 right、left
+	            new ParallelIngester(rawFile, threads).ingest(new ParallelIngester.RangeHandlerFactory<NgramCounters>() {
+	                @Override
+	                public NgramCounters create() throws IOException {
+	                    return new NgramCounters((null == right) ? null : new PackedNgramCounter(right, partialMem),
+	                            (null == left) ? null : new PackedNgramCounter(left, partialMem));
+	                }
+
+	                @Override
+	                public void done(NgramCounters counters) throws IOException {
+	                    counters.flush();
+	                }
+	            });
+	        } else {
+	            try (BufferedReader rawFileReader = Files.newReader(rawFile, Charsets.UTF_8)) {
+	                new SentenceTokenizer().tokenize(rawFileReader, new NgramCounters(right, left));
+	            }
+	        }
+	        long words = -1;
+	        if (null != right) {
+	            words = right.writeFreqFile(rightNgramFreqSortFile, _config.getMinFreq());
+	        }
+	        if (null != left) {
+	            words = left.writeFreqFile(leftNgramFreqSortFile, _config.getMinFreq());
+	        }
+	        if (approximate) {
+	            // 表里只有一部分词
+	            words = (null == right) ? left.estimateDistinctWords() : right.estimateDistinctWords();
+	            LOG.info("estimated number of distinct words: {}", words);
+	        }
+	        _distinctWords = words;
+	        return true;
+	    } catch (PackedNgramTable.TableFullException e) {
+	        LOG.info("{}, using external sort", e.getMessage());
+	    } catch (IOException e) {
+	        LOG.error("countInMemory error, using external sort:", e);
+	    }
+	    return false;
+	}
+
+	/**
+	 * 用两棵字典树统计：一棵存句子，一棵存反转的句子，多个线程可以同时插入。
+	 * 遍历第一棵树直接得到排好序的词频和右邻字熵，第二棵树得到左邻字熵（按反转的词排序，还要再排一次）。
+	 */
+	private void countWithTrie(File rawFile, CharAlphabet alphabet, int maxLen, long maxMem,
+	        File rightNgramFreqSortFile, File leftNgramFreqSortFile) throws IOException {
+	    final TrieNgramCounter counter = new TrieNgramCounter(alphabet, maxLen,
+	            null != rightNgramFreqSortFile, null != leftNgramFreqSortFile, maxMem);
+	    int threads = _config.getIngestThreads();
+	    if (threads > 1) {
+	        new ParallelIngester(rawFile, threads).ingest(new ParallelIngester.RangeHandlerFactory<SentenceHandler>() {
+	            @Override
+	            public SentenceHandler create() {
+	                return counter.newHandler();
+	            }
+
+	            @Override
+	            public void done(SentenceHandler handler) {
+	            }
+	        });
+	    } else {
+	        try (BufferedReader rawFileReader = Files.newReader(rawFile, Charsets.UTF_8)) {
+	            new SentenceTokenizer().tokenize(rawFileReader, counter.newHandler());
+	        }
+	    }
+	    LOG.info("tries use {} bytes", counter.memory());
+	    File leftNgramFreqFile = new File(rawFile.getParentFile(), "left_ngram_freq.data");
+	    try (DataWriter<NgramRecord> right = (null == rightNgramFreqSortFile) ? null
+	                : NgramRecordWriter.factory().constructWriter(new FileOutputStream(rightNgramFreqSortFile));
+	            DataWriter<NgramRecord> left = (null == leftNgramFreqSortFile) ? null
+	                : NgramRecordWriter.factory().constructWriter(new FileOutputStream(leftNgramFreqFile))) {
+	        _distinctWords = counter.writeRecords(right, left, _config.getMinFreq());
+	    }
+	    if (null != leftNgramFreqSortFile) {
+	        sortRecordFile(leftNgramFreqFile, leftNgramFreqSortFile);
+	    }
+	}
+
+	/**
+	 * 原始文件的字符表，文件和上次扫描时一样就不再扫描
+	 */
+	private CharAlphabet scanAlphabet(File rawFile) throws IOException {
+	    File file = rawFile.getAbsoluteFile();
+	    // 先记下长度和修改时间，扫描时文件被改了下次也会重新扫描
+	    long length = file.length();
+	    long modified = file.lastModified();
+	    if (null == _alphabet || !file.equals(_alphabetFile)
+	            || length != _alphabetFileLength || modified != _alphabetFileModified) {
+	        _alphabet = CharAlphabet.scan(file);
+	        _alphabetFile = file;
+	        _alphabetFileLength = length;
+	        _alphabetFileModified = modified;
+	    }
+	    return _alphabet;
+	}
+
+	private CountMinSketch newSketch() {
+	    return CountMinSketch.forError(_config.getSketchEpsilon(), _config.getSketchDelta());
+	}
+
+	/**
+	 * 用后缀数组统计词频和左右邻字熵：一个后缀数组同时得到两个方向，不需要生成 ngram 文件。
+	 * 结果按后缀数组的顺序写出，还要按词排一次序。
+	 */
+	private void countWithSuffixArray(File rawFile, CharAlphabet alphabet, int maxLen, long maxMem,
+	        File rightNgramFreqSortFile, File leftNgramFreqSortFile) throws IOException {
+	    SuffixArrayCounter counter = new SuffixArrayCounter(alphabet, maxLen, maxMem);
+	    try (BufferedReader rawFileReader = Files.newReader(rawFile, Charsets.UTF_8)) {
+	        new SentenceTokenizer().tokenize(rawFileReader, counter);
+	    }
+	    File dir = rawFile.getParentFile();
+	    File rightNgramFreqFile = new File(dir, "right_ngram_freq.data");
+	    File leftNgramFreqFile = new File(dir, "left_ngram_freq.data");
+	    try (DataWriter<NgramRecord> right = (null == rightNgramFreqSortFile) ? null
+	                : NgramRecordWriter.factory().constructWriter(new FileOutputStream(rightNgramFreqFile));
+	            DataWriter<NgramRecord> left = (null == leftNgramFreqSortFile) ? null
+	                : NgramRecordWriter.factory().constructWriter(new FileOutputStream(leftNgramFreqFile))) {
+	        _distinctWords = counter.writeRecords(right, left, _config.getMinFreq());
+	    }
+	    if (null != rightNgramFreqSortFile) {
+	        sortRecordFile(rightNgramFreqFile, rightNgramFreqSortFile);
+	    }
+	    if (null != leftNgramFreqSortFile) {
+	        sortRecordFile(leftNgramFreqFile, leftNgramFreqSortFile);
+	    }
+	}
+
+	/**
+	 * 只读取、切分一遍原始文件，同时生成右邻字和左邻字的 freq 文件。
+	 * 
+	 * @return 右邻字 freq 文件和左邻字 freq 文件的路径
+	 */
+	public String[] genNgramFreqSortFiles(String rawTextFile, int maxLen) {
+
+		File rawFile = new File(rawTextFile);
+
+		File dir = rawFile.getParentFile();
+
+		File rightNgramFreqSortFile = new File(dir, "right_ngram_freq_sort.data");
+		File leftNgramFreqSortFile = new File(dir, "left_ngram_freq_sort.data");
+
+		if (!countInMemory(rawFile, maxLen, rightNgramFreqSortFile, leftNgramFreqSortFile)) {
+		    try {
+		        sortAndAggregateNgrams(rawFile, maxLen, rightNgramFreqSortFile, leftNgramFreqSortFile);
+		    } catch (IOException e) {
+		        LOG.error("genNgramFreqSortFiles error:", e);
+		    }
+		}
+
+		return new String[] { rightNgramFreqSortFile.getAbsolutePath(), leftNgramFreqSortFile.getAbsolutePath() };
+	}
+
+	/**
+	 * 读取、切分原始文件，把 ngram 排好序，再统计出 freq 文件。
+	 * 默认（流水线模式）直接统计排序最后一轮归并出来的 ngram，不写 xxx_ngram_sort.data；
+	 * 关掉流水线模式时先写出 xxx_ngram_sort.data，再读回来统计。
+	 * 
+	 * @param rightNgramFreqSortFile 右邻字 freq 文件，不需要时为 null
+	 * @param leftNgramFreqSortFile 左邻字 freq 文件，不需要时为 null
+	 */
+	private void sortAndAggregateNgrams(File rawFile, int maxLen, File rightNgramFreqSortFile, File leftNgramFreqSortFile) throws IOException {
+	    File dir = rawFile.getParentFile();
+	    boolean right = null != rightNgramFreqSortFile;
+	    boolean left = null != leftNgramFreqSortFile;
+	    SortConfig sortConfig = _config.getSortConfig();
+	    if (right && left) {
+	        // 两个方向同时排序，内存各占一半
+	        sortConfig = sortConfig.withMaxMemoryUsage(sortConfig.getMaxMemoryUsage() >> 1);
+	    }
+	    FrequentNgrams frequent = collectFrequentNgrams(rawFile, maxLen);
+	    try (FrontCodedLineSorter rightSorter = right ? new FrontCodedLineSorter(sortConfig) : null;
+	            FrontCodedLineSorter leftSorter = left ? new FrontCodedLineSorter(sortConfig) : null) {
+
+	        SortedNgrams sorted = (_config.getIngestThreads() > 1)
+	                ? sortNgramsInParallel(rawFile, maxLen, frequent, rightSorter, leftSorter)
+	                : sortNgramsStreaming(rawFile, maxLen, frequent, rightSorter, leftSorter);
+
+	        LOG.info("ngrams are sorted, gen freq...");
+
+	        if (right) {
+	            long words = aggregateRightNgrams(sortedLines(sorted.right, new File(dir, "right_ngram_sort.data")), rightNgramFreqSortFile);
+	            // 剪枝后低频的 ngram 没有排序，只能用找高频词时估计的数
+	            _distinctWords = (null == frequent) ? words : frequent.estimateDistinctWords();
+	        }
+	        if (left) {
+	            aggregateLeftNgrams(sortedLines(sorted.left, new File(dir, "left_ngram_sort.data")), leftNgramFreqSortFile);
+	        }
+	    } catch (IterableSorterException e) {
+	        // 归并时读文件出错
+	        throw (IOException) e.getCause();
+	    }
+	}
+
+	/**
+	 * minFreq 大于 1 时，先逐个长度找出出现次数不少于 minFreq 的词：长度为 k 的词只有前、后
+	 * k-1 个字都是高频词时才可能是高频词，所以每一遍只统计这样的候选词。生成 ngram 时只保留高频词，
+	 * 低频的 ngram 就不用排序了。
+	 * 
+	 * @return 高频词集合；不需要或内存不够时为 null，此时生成全部 ngram
+	 */
+	private FrequentNgrams collectFrequentNgrams(File rawFile, int maxLen) {
+	    int minFreq = _config.getMinFreq();
+	    if (minFreq <= 1) {
+	        return null;
+	    }
+	    try {
+	        CharAlphabet alphabet = scanAlphabet(rawFile);
+	        if (!FrequentNgrams.fits(alphabet, maxLen - 1)) {
+	            LOG.info("{} chars of {} bits do not fit in a packed key, not pruning n-grams", maxLen - 1, alphabet.bits());
+	            return null;
+	        }
+	        // 排序还没开始，先借用排序的内存
+	        return FrequentNgrams.collect(rawFile, _config.getIngestThreads(), alphabet, maxLen - 1, minFreq,
+	                _config.getSortConfig().getMaxMemoryUsage());
+	    } catch (PackedNgramTable.TableFullException e) {
+	        LOG.info("{}, not pruning n-grams", e.getMessage());
+	    } catch (IOException e) {
+	        LOG.error("collectFrequentNgrams error, not pruning n-grams:", e);
+	    }
+	    return null;
+	}
+
+	/**
+	 * 单线程读取、切分原始文件，生成的 ngram 经有界队列直接交给排序线程做预排序：
+	 * 生成和排序同时进行，也不用先写 xxx_ngram.data 再读回来。
+	 * 
+	 * @return 预排序完成后，两个方向最后一轮归并的结果
+	 */
+	private SortedNgrams sortNgramsStreaming(File rawFile, int maxLen, FrequentNgrams frequent,
+	        FrontCodedLineSorter rightSorter, FrontCodedLineSorter leftSorter) throws IOException {
+	    SortedNgrams sorted = new SortedNgrams();
+	    ExecutorService executor = Executors.newFixedThreadPool(2);
+	    try (BufferedReader rawFileReader = Files.newReader(rawFile, Charsets.UTF_8);
+	            StreamingSortWriter right = (null == rightSorter) ? null
+	                : new StreamingSortWriter(rightSorter, StreamingSortWriter.DEFAULT_QUEUE_CAPACITY, executor);
+	            StreamingSortWriter left = (null == leftSorter) ? null
+	                : new StreamingSortWriter(leftSorter, StreamingSortWriter.DEFAULT_QUEUE_CAPACITY, executor)) {
+
+	        new SentenceTokenizer().tokenize(rawFileReader, new NgramLineWriter(maxLen, frequent, right, left));
+	        if (null != right) {
+	            sorted.right = right.sortedLines();
+	        }
+	        if (null != left) {
+	            sorted.left = left.sortedLines();
+	        }
+	    } finally {
+	        executor.shutdownNow();
+	    }
+	    return sorted;
+	}
+
+	/**
+	 * 多线程读取、切分原始文件。每个线程把 ngram 攒在内存里，攒满就排好序写成一个小文件，
+	 * 最后直接归并所有小文件，不用先写 xxx_ngram.data 再整体排序。
+	 * 
+	 * @return 两个方向最后一轮归并的结果
+	 */
+	private SortedNgrams sortNgramsInParallel(File rawFile, final int maxLen, final FrequentNgrams frequent,
+	        FrontCodedLineSorter rightSorter, FrontCodedLineSorter leftSorter) throws IOException {
+	    final SortConfig sortConfig = _config.getSortConfig();
+	    final int threads = _config.getIngestThreads();
+	    final boolean right = null != rightSorter;
+	    final boolean left = null != leftSorter;
+	    // 排序内存由所有线程、两个方向平分
+	    final long runMem = Math.max(MIN_RUN_MEMORY, sortConfig.getMaxMemoryUsage() / (threads << 1));
+	    final List<File> rightRuns = Collections.synchronizedList(new ArrayList<File>());
+	    final List<File> leftRuns = Collections.synchronizedList(new ArrayList<File>());
+
+	    new ParallelIngester(rawFile, threads).ingest(new ParallelIngester.RangeHandlerFactory<NgramRuns>() {
+	        @Override
+	        public NgramRuns create() {
+	            return new NgramRuns(maxLen, frequent, right ? new NgramRunWriter(sortConfig, runMem) : null,
+	                    left ? new NgramRunWriter(sortConfig, runMem) : null);
+	        }
+
+	        @Override
+	        public void done(NgramRuns runs) throws IOException {
+	            if (right) {
+	                runs.right.close();
+	                rightRuns.addAll(runs.right.runs());
+	            }
+	            if (left) {
+	                runs.left.close();
+	                leftRuns.addAll(runs.left.runs());
+	            }
+	        }
+	    });
+
+	    SortedNgrams sorted = new SortedNgrams();
+	    if (right) {
+	        sorted.right = mergeRuns(rightSorter, rightRuns);
+	    }
+	    if (left) {
+	        sorted.left = mergeRuns(leftSorter, leftRuns);
+	    }
+	    return sorted;
+	}
+
+	private Iterator<byte[]> mergeRuns(FrontCodedLineSorter sorter, List<File> runs) throws IOException {
+	    Iterator<byte[]> merged = sorter.mergePresorted(runs);
+	    if (null == merged) {
+	        throw new IOException("Sorting was cancelled");
+	    }
+	    return merged;
+	}
+
+	/**
+	 * 流水线模式下直接读归并的结果；否则先把它写到 ngramSortFile（前缀压缩格式，见 {@link FrontCodedLineWriter}），再从文件读
+	 */
+	private DataReader<byte[]> sortedLines(Iterator<byte[]> merged, File ngramSortFile) throws IOException {
+	    if (_config.isPipelinedAggregation()) {
+	        return new CollectionReader<byte[]>(merged);
+	    }
+	    try (DataWriter<byte[]> ngramSortFileWriter = FrontCodedLineWriter.factory().constructWriter(new FileOutputStream(ngramSortFile))) {
+	        while (merged.hasNext()) {
+	            ngramSortFileWriter.writeEntry(merged.next());
+	        }
+	    }
+	    return FrontCodedLineReader.factory().constructReader(new FileInputStream(ngramSortFile));
+	}
+
 	public String genLeftNgramFreqSortFile(String rawTextFile, int maxLen) {
 
 		File rawFile = new File(rawTextFile);
 
 		File dir = rawFile.getParentFile();
 
-		File ngramFile = new File(dir, "left_ngram.data");
-		File ngramSortFile = new File(dir, "left_ngram_sort.data");
-		File ngramFreqFile = new File(dir, "left_ngram_freq.data");
 		File ngramFreqSortFile = new File(dir, "left_ngram_freq_sort.data");
 
-		try (BufferedReader rawFileReader = Files.newReader(rawFile, Charsets.UTF_8);
-				BufferedWriter ngramFileWriter = Files.newWriter(ngramFile, Charsets.UTF_8);
-				BufferedWriter ngramFreqFileWriter = Files.newWriter(ngramFreqFile, Charsets.UTF_8)) {
-		    
-			String line = null;
-			while (null != (line = rawFileReader.readLine())) {
-			    
-			    // 去除停顿词
-				line = repaceStopWords(line);
-				
-				for (String sen : Splitter.on(" ").omitEmptyStrings().splitToList(line)) {
-				    
-				    // 反转  123 -> 321
-					sen = reverse(sen.trim());
-					
-					if (!allChs(sen)) {
-					    continue;
-					}
-					
-					sen = "$" + sen + "$";
-					for (int i = 1; i < sen.length() - 1; ++i) {
-						ngramFileWriter.write(sen.substring(i, Math.min(maxLen + i,  sen.length())) + "\n");
-					}
-				}
-			}
-			
-			ngramFileWriter.flush();
-			
-			LOG.info("left is over, gen sorting...");
-			
-			sortFile(ngramFile, ngramSortFile);
-
-			genNgramFreqFile(ngramSortFile, ngramFreqFileWriter);
-			
-			sortFile(ngramFreqFile, ngramFreqSortFile);
+		if (countInMemory(rawFile, maxLen, null, ngramFreqSortFile)) {
+		    return ngramFreqSortFile.getAbsolutePath();
+		}
 
+		try {
+			sortAndAggregateNgrams(rawFile, maxLen, null, ngramFreqSortFile);
 		} catch (IOException e) {
 		    LOG.error("genLeftNgramFreqSortFile error:", e);
 		}
@@ -181,94 +586,19 @@ public class FastBuilder {
 		return ngramFreqSortFile.getAbsolutePath();
 	}
 
-    private void genNgramFreqFile(File ngramSortFile, BufferedWriter ngramFreqFileWriter) throws IOException {
-        
-        try(BufferedReader ngramSortFileReader = Files.newReader(ngramSortFile, Charsets.UTF_8)) {
-            
-        	String first = null;
-        	String ngramSortFileLine = null;
-        	Map<String, CounterMap> stats = Maps.newHashMap();
-        	while (null != (ngramSortFileLine = ngramSortFileReader.readLine())) {
-        		if (null == first) {
-        			for (int i = 1; i < ngramSortFileLine.length(); ++i) {
-        				String word = ngramSortFileLine.substring(0, i);
-        				String suffix = ngramSortFileLine.substring(i).substring(0, 1);
-        				if (stats.containsKey(word)) {
-        					stats.get(word).incr(suffix);
-        				} else {
-        					CounterMap cm = new CounterMap();
-        					cm.incr(suffix);
-        					stats.put(word, cm);
-        				}
-        			}
-        			first = ngramSortFileLine.substring(0, 1);
-        		} else {
-        			if (first != null && !ngramSortFileLine.startsWith(first)) {
-
-        				StringBuilder builder = new StringBuilder();
-        				for (String word : stats.keySet()) {
-        					CounterMap cm = stats.get(word);
-        					
-        					int freq = 0;
-        					for (String k : cm.countAll().keySet()) {
-        						freq += cm.get(k);
-        					}
-        					
-        					double re = 0;
-        					for (String k : cm.countAll().keySet()) {
-        						double p = cm.get(k) * 1.0 / freq;
-        						re += -1 * Math.log(p) / Math.log(2) * p;
-        					}
-        					// 为什么少了  append("\t").append(freq)
-        					// 因为词的频次不管是从哪个方向统计，频次都是一样的
-        					builder.append(reverse(word)).append("\t").append(re).append("\n");
-        				}
-        				ngramFreqFileWriter.write(builder.toString());
-        				stats.clear();
-        				
-        			}
-        			
-        			for (int i = 1; i < ngramSortFileLine.length(); ++i) {
-        				String w = ngramSortFileLine.substring(0, i);
-        				String suffix = ngramSortFileLine.substring(i).substring(0, 1);
-        				if (stats.containsKey(w)) {
-        					stats.get(w).incr(suffix);
-        				} else {
-        					CounterMap cm = new CounterMap();
-        					cm.incr(suffix);
-        					stats.put(w, cm);
-        				}
-        			}
-        			first = ngramSortFileLine.substring(0, 1);
-        		}
-        	}
-        	StringBuilder builder = new StringBuilder();
-            for (String word : stats.keySet()) {
-                CounterMap cm = stats.get(word);
-                
-                int freq = 0;
-                for (String k : cm.countAll().keySet()) {
-                    freq += cm.get(k);
-                }
-                
-                double re = 0;
-                for (String k : cm.countAll().keySet()) {
-                    double p = cm.get(k) * 1.0 / freq;
-                    re += -1 * Math.log(p) / Math.log(2) * p;
-                }
-                // 为什么少了  append("\t").append(freq)
-                // 因为词的频次不管是从哪个方向统计，频次都是一样的
-                builder.append(reverse(word)).append("\t").append(re).append("\n");
-            }
-            ngramFreqFileWriter.write(builder.toString());
-            stats.clear();
-        	ngramFreqFileWriter.flush();
-        }
-    }
+	/**
+	 * 由排好序的左邻字 ngram 统计左邻字熵，生成 left_ngram_freq_sort.data。
+	 * 统计出的是反转的词，顺序是乱的，所以边统计边交给排序，不再先写 left_ngram_freq.data。
+	 */
+	private void aggregateLeftNgrams(DataReader<byte[]> ngramSortLines, File ngramFreqSortFile) throws IOException {
 
-    private static final String repaceStopWords(String line) {
-        return STOPWORDS_COMPILE.matcher(line).replaceAll(" ");
-    }
+		try (NgramRecordSorter sorter = new NgramRecordSorter(_config.getSortConfig());
+		        DataReader<NgramRecord> ngramFreqReader = new NgramLineRecordReader(ngramSortLines, true, _config.getMinFreq());
+		        DataWriter<NgramRecord> ngramFreqSortFileWriter = NgramRecordWriter.factory().constructWriter(new FileOutputStream(ngramFreqSortFile))) {
+
+		    sorter.sort(ngramFreqReader, ngramFreqSortFileWriter);
+		}
+	}
 
 	public String genRightNgramFreqSortFile(String rawTextFile, int maxLen) {
 
@@ -276,128 +606,14 @@ public class FastBuilder {
 
 		File dir = rawFile.getParentFile();
 
-		File ngramFile = new File(dir, "right_ngram.data");
-		File ngramSortFile = new File(dir, "right_ngram_sort.data");
-		File ngramFreqFile = new File(dir, "right_ngram_freq.data");
 		File ngramFreqSortFile = new File(dir, "right_ngram_freq_sort.data");
 
-		try (BufferedReader rawFileReader = Files.newReader(rawFile, Charsets.UTF_8);
-				BufferedWriter ngramFileWriter = Files.newWriter(ngramFile, Charsets.UTF_8);
-				BufferedWriter ngramFreqFileWriter = Files.newWriter(ngramFreqFile, Charsets.UTF_8)) {
-		    
-			String line = null;
-			while (null != (line = rawFileReader.readLine())) {
-				line = repaceStopWords(line);
-				for (String sen : Splitter.on(" ").omitEmptyStrings().splitToList(line)) {
-					sen = sen.trim();
-					// 判断是不是中文
-					// 为什么不在替换的时候将不是中文的字符使用正则替换？
-					if (!allChs(sen)) {
-					    continue;
-					}
-					// 不明白为什么要加 $
-					sen = "$" + sen + "$";
-					for (int i = 1; i < sen.length() - 1; ++i) {
-						ngramFileWriter.write(sen.substring(i, Math.min(maxLen + i,  sen.length())) + "\n");
-					}
-				}
-			}
-			
-			ngramFileWriter.flush();
-			
-			LOG.info("right is over, gen sorting...");
-			
-			sortFile(ngramFile, ngramSortFile);
-			
-			try(BufferedReader ngramSortFileReader = Files.newReader(ngramSortFile, Charsets.UTF_8)) {
-				// 第一个字
-			    String first = null;
-				String ngramSortFileLine = null;
-				Map<String, CounterMap> stats = Maps.newHashMap();
-				while (null != (ngramSortFileLine = ngramSortFileReader.readLine())) {
-					if (null == first) {
-						for (int i = 1; i < ngramSortFileLine.length(); ++i) {
-							String word = ngramSortFileLine.substring(0, i);
-							// 相邻的后缀字
-							// TODO ngramSortFileLine.substring(i, i + 1)
-							String suffix = ngramSortFileLine.substring(i).substring(0, 1);
-							// 统计某个词所有后缀字出现的次数
-							if (stats.containsKey(word)) {
-								stats.get(word).incr(suffix);
-							} else {
-								CounterMap cm = new CounterMap();
-								cm.incr(suffix);
-								stats.put(word, cm);
-							}
-						}
-						first = ngramSortFileLine.substring(0, 1);
-					} else {
-					    
-					    // 将所有以 first 开头的词写入到 ngramFreqFile 文件中
-						if (!ngramSortFileLine.startsWith(first)) {
-
-							StringBuilder builder = new StringBuilder();
-							for (String word : stats.keySet()) {
-								CounterMap cm = stats.get(word);
-								
-								// 某个词所有相邻后缀字出现的次数
-								int freq = 0;
-								for (String k : cm.countAll().keySet()) {
-									freq += cm.get(k);
-								}
-								// 熵
-								double re = 0;
-								for (String k : cm.countAll().keySet()) {
-									double p = cm.get(k) * 1.0 / freq;
-									re += -1 * Math.log(p) / Math.log(2) * p;
-								}
-								builder.append(word).append("\t").append(freq).append("\t").append(re).append("\n");
-							}
-							ngramFreqFileWriter.write(builder.toString());
-							stats.clear();
-							// 将当前行的第一个字赋给 first，准备统计以该 first 开头的相邻后缀字
-							first = ngramSortFileLine.substring(0, 1);
-						}
-						for (int i = 1; i < ngramSortFileLine.length(); ++i) {
-							String w = ngramSortFileLine.substring(0, i);
-							String suffix = ngramSortFileLine.substring(i).substring(0, 1);
-							if (stats.containsKey(w)) {
-								stats.get(w).incr(suffix);
-							} else {
-								CounterMap cm = new CounterMap();
-								cm.incr(suffix);
-								stats.put(w, cm);
-							}
-						}
-					}
-				}
-				
-				StringBuilder builder = new StringBuilder();
-                for (String word : stats.keySet()) {
-                    CounterMap cm = stats.get(word);
-                    
-                    // 某个词所有相邻后缀字出现的次数
-                    int freq = 0;
-                    for (String k : cm.countAll().keySet()) {
-                        freq += cm.get(k);
-                    }
-                    // 熵
-                    double re = 0;
-                    for (String k : cm.countAll().keySet()) {
-                        double p = cm.get(k) * 1.0 / freq;
-                        re += -1 * Math.log(p) / Math.log(2) * p;
-                    }
-                    builder.append(word).append("\t").append(freq).append("\t").append(re).append("\n");
-                }
-                ngramFreqFileWriter.write(builder.toString());
-                stats.clear();
-                
-				ngramFreqFileWriter.flush();
-			}
-			
-			// 将排好序的数据写入到 ngramFreqSortFile 文件
-			sortFile(ngramFreqFile, ngramFreqSortFile);
+		if (countInMemory(rawFile, maxLen, ngramFreqSortFile, null)) {
+		    return ngramFreqSortFile.getAbsolutePath();
+		}
 
+		try {
+			sortAndAggregateNgrams(rawFile, maxLen, ngramFreqSortFile, null);
 		} catch (IOException e) {
 		    LOG.error("genRightNgramFreqSortFile error:", e);
 		}
@@ -405,102 +621,78 @@ public class FastBuilder {
 		return ngramFreqSortFile.getAbsolutePath();
 	}
 
+	/**
+	 * 按行读取排好序的右邻字 ngram，每个词一结束（下一行不再以它开头）就写出它的词频和右邻字熵，
+	 * 生成 right_ngram_freq_sort.data。统计结果按词的顺序写出，不用再排序。
+	 * 
+	 * @return 不同词数，包括低于 minFreq、没有写出的词
+	 */
+	private long aggregateRightNgrams(DataReader<byte[]> ngramSortLines, File ngramFreqSortFile) throws IOException {
+
+		try (DataReader<byte[]> lines = ngramSortLines;
+		        DataWriter<NgramRecord> ngramFreqSortFileWriter = NgramRecordWriter.factory().constructWriter(new FileOutputStream(ngramFreqSortFile))) {
+
+			NgramLineAggregator aggregator = new NgramLineAggregator(ngramFreqSortFileWriter, false, _config.getMinFreq(),
+			        _config.getSortConfig());
+			byte[] line = null;
+			while (null != (line = lines.readNext())) {
+				aggregator.line(new String(line, Charsets.UTF_8));
+			}
+			aggregator.finish();
+			return aggregator.getWordCount();
+		}
+	}
+
+	/**
+	 * 两个文件都已按词排好序，同时往下读、按词对齐（merge-join），一遍写出 merge_entropy.data：
+	 * 两边都有的词取左右熵中较小的一个，只有一边有的词丢弃。
+	 */
 	public String mergeEntropy(String freqRight, String left) {
 
 		File rightNgramFreqSortFile = new File(freqRight);
 		File leftNgramFreqSortFile = new File(left);
-		File mergeTmp = new File(rightNgramFreqSortFile.getParentFile(), "merge.tmp");
-		File mergeTmp2 = new File(rightNgramFreqSortFile.getParentFile(), "merge.tmp2");
 		File entropyFile = new File(rightNgramFreqSortFile.getParentFile(), "merge_entropy.data");
 
-		try (BufferedReader rightNgramFreqSortFileReader = Files.newReader(rightNgramFreqSortFile, Charsets.UTF_8);
-				BufferedReader leftNgramFreqSortFileReader = Files.newReader(leftNgramFreqSortFile, Charsets.UTF_8);
-				BufferedWriter mergeTmpWriter = Files.newWriter(mergeTmp, Charsets.UTF_8);
-				BufferedWriter entropyFileWriter = Files.newWriter(entropyFile, Charsets.UTF_8)) {
-		    
-			String line = null;
-			while (null != (line = rightNgramFreqSortFileReader.readLine())) {
-				mergeTmpWriter.write(line + "\n");
-			}
-			
-			line = null;
-			while (null != (line = leftNgramFreqSortFileReader.readLine())) {
-				mergeTmpWriter.write(line + "\n");
-			}
-			
-			mergeTmpWriter.flush();
-			
-			// 将排序后的文件写到 mergeTmp2 中
-			sortFile(mergeTmp, mergeTmp2);
-			
-            BufferedReader mergeTmp2Reader = Files.newReader(mergeTmp2, Charsets.UTF_8);
+		try (DataReader<NgramRecord> rightNgramFreqSortFileReader = NgramRecordReader.factory().constructReader(new FileInputStream(rightNgramFreqSortFile));
+				DataReader<NgramRecord> leftNgramFreqSortFileReader = NgramRecordReader.factory().constructReader(new FileInputStream(leftNgramFreqSortFile));
+				DataWriter<NgramRecord> entropyFileWriter = NgramRecordWriter.factory().constructWriter(new FileOutputStream(entropyFile))) {
 
-			String line1 = null;
-			String line2 = null;
-			
 			/*
-			 *  词    熵
-			 *  一    1.3709505944546687
+			 *  词     频次     熵
+			 *  一     5    2.321928094887362
 			 */
-			line1 = mergeTmp2Reader.readLine();
+			NgramRecord rightRecord = rightNgramFreqSortFileReader.readNext();
 			
 			/*
-			 *  词     频次     熵
-			 *  一     5    2.321928094887362
+			 *  词    熵
+			 *  一    1.3709505944546687
 			 */
-			line2 = mergeTmp2Reader.readLine();
+			NgramRecord leftRecord = leftNgramFreqSortFileReader.readNext();
 			
-			while (true) {
+			while (null != rightRecord && null != leftRecord) {
 
-				if (null == line1 || null == line2) {
-				    break;
-				}
-				
-				String[] seg1 = TAB_COMPILE.split(line1);
-				String[] seg2 = TAB_COMPILE.split(line2);
-				
-				// 如果两个关键词不相等，说明只有左统计或者右统计
-				if (!seg1[0].equals(seg2[0])) {
-				    System.out.println(seg1[0]);
-					line1 = line2;
-					line2 = mergeTmp2Reader.readLine();
-					continue;
-				}
+				int cmp = NgramRecordComparator.compareKeys(rightRecord.getKey(), leftRecord.getKey());
 				
-				// 这个判断好像是多余的
-				if (seg1.length < 2) {
-				    LOG.info("长度小于 2 的行:{}", line1);
-					line1 = line2;
-					line2 = mergeTmp2Reader.readLine();
-					continue;
+				// 如果两个关键词不相等，说明只有左统计或者右统计，跳过较小的一个
+				if (cmp < 0) {
+				    LOG.debug("only one side: {}", rightRecord.getWord());
+				    rightRecord = rightNgramFreqSortFileReader.readNext();
+				    continue;
 				}
-				
-				line1 = mergeTmp2Reader.readLine();
-				line2 = mergeTmp2Reader.readLine();
-				
-				// 这个判断好像是多余的
-				if (seg1.length < 3 && seg2.length < 3) {
-				    LOG.info("第一行小于 3:{}", line1);
-				    LOG.info("第二行小于 3:{}", line2);
+				if (cmp > 0) {
+				    LOG.debug("only one side: {}", leftRecord.getWord());
+				    leftRecord = leftNgramFreqSortFileReader.readNext();
 				    continue;
 				}
 				
-				// 左熵
-				double leftEntropy = seg1.length == 2 ? Double.parseDouble(seg1[1]) : Double.parseDouble(seg2[1]);
-				
-				// 右熵 
-				double rightEntropy = seg1.length == 3 ? Double.parseDouble(seg1[2]) : Double.parseDouble(seg2[2]);
-				
-				// 频次 
-				int freq = seg1.length == 3 ? Integer.parseInt(seg1[1]) : Integer.parseInt(seg2[1]);
-				        
-				double e = Math.min(leftEntropy, rightEntropy);
+				double e = Math.min(leftRecord.getEntropy(), rightRecord.getEntropy());
 				
 				// 词    词频    熵
-				entropyFileWriter.write(seg1[0] + "\t" + freq + "\t" + e + "\n");
+				entropyFileWriter.writeEntry(new NgramRecord(rightRecord.getKey(), rightRecord.getFreq(), e));
 
+				rightRecord = rightNgramFreqSortFileReader.readNext();
+				leftRecord = leftNgramFreqSortFileReader.readNext();
 			}
-			entropyFileWriter.flush();
 
 		} catch (IOException e) {
 		    LOG.error("mergeEntropy error:", e);
@@ -527,127 +719,143 @@ public class FastBuilder {
 		
 		Map<String, double[]> posProp = this.loadPosprop();
 
-		// 词 - 词频
-		RadixTree<Integer> tree = new ConcurrentRadixTree<>(new DefaultCharArrayNodeFactory());
-
 		File rightNgramFreqSortFile = new File(rightNgramFreqSortFilePath);
+		// 词 - 词频，存在文件里，用的时候直接映射到内存，不占堆
+		File freqIndexFile = new File(rightNgramFreqSortFile.getParentFile(), "right_ngram_freq.idx");
 		File entropyFile = new File(entropyFilePath);
 		File wordsFile = new File(entropyFile.getParentFile(), "words.data");
 		File wordsSortFile = new File(entropyFile.getParentFile(), "words_sort.data");
 
-		try (BufferedReader rightNgramFreqSortFileReader = Files.newReader(rightNgramFreqSortFile, Charsets.UTF_8);
-				BufferedReader entropyFileReader = Files.newReader(entropyFile, Charsets.UTF_8);
-				BufferedWriter wordsFileWriter = Files.newWriter(wordsFile, Charsets.UTF_8)) {
+		try {
+		    // freq 文件没变过（长度、修改时间和建索引时一样）就直接用上次建好的索引
+		    if (!FreqIndex.isBuiltFrom(freqIndexFile, rightNgramFreqSortFile)) {
+		        FreqIndex.build(rightNgramFreqSortFile, freqIndexFile);
+		    }
+		} catch (IOException e) {
+		    LOG.error("build freq index error:", e);
+		    return;
+		}
 
-			String line = null;
+		// 只要前 topK 个词时，直接在内存里留下频次最高的，不写 words.data，也不用排序
+		final int topK = _config.getTopK();
+		TopNCollector<ScoredWord> topWords = (topK > 0) ? new TopNCollector<ScoredWord>(ScoredWord.BY_FREQ, topK) : null;
+
+		try (FreqIndex freqIndex = FreqIndex.open(freqIndexFile);
+				DataReader<NgramRecord> entropyFileReader = NgramRecordReader.factory().constructReader(new FileInputStream(entropyFile));
+				DataWriter<ScoredWord> wordsWriter = (null != topWords) ? topWords : new WordsFileWriter(wordsFile)) {
+
+			NgramRecord record = null;
 			// 总词数
-			long total = 0;
-			while (null != (line = rightNgramFreqSortFileReader.readLine())) {
-			    String[] seg = TAB_COMPILE.split(line);
-				// 这个条件好像是多余的
-				if (seg.length < 3) {
-				    continue;
-				}
-				
-				tree.put(seg[0], Integer.parseInt(seg[1]));
-				
-				total += 1;
-			}
+			long total = freqIndex.size();
 			
-			LOG.info("load freq to radix tree done: " + total);
-			LOG.info("build freq TST done!");
+			LOG.info("load freq index done: " + total);
+			if (_distinctWords >= 0) {
+			    // 低频词不在索引里，但也要算进总词数
+			    total = _distinctWords;
+			}
 			
-			line = null;
 			int cnt = 0;
-			while (null != (line = entropyFileReader.readLine())) {
-			    
-				cnt += 1;
-				
-				String[] seg = TAB_COMPILE.split(line);
-				// 这个条件好像是多余的
-				if (3 != seg.length) {
-				    continue;
-				}
-				String word = seg[0];
-				// 英文单词或者数字
-				// 这个条件好像是多余的
-				if (allLetterOrNumber(word)) {
-					continue;
-				}
-				
-				int freq = Integer.parseInt(seg[1]);
-				double entropy = Double.parseDouble(seg[2]);
-				long max = -1;
-				// i = 1 过滤了长度为 1 的词
-				for (int i = 1; i < word.length(); ++i) {
-					String lw = word.substring(0, i);
-					String rw = word.substring(i);
-					Integer lfObj = tree.getValueForExactKey(lw);
-					Integer rfObj = tree.getValueForExactKey(rw);
-					
-					long lf = -1;
-					long rf = -1;
-					if (null != lfObj) {
-						lf = lfObj.intValue();
-					}
-					if (null != rfObj) {
-						rf = rfObj.intValue();
-					}
-					if (-1 == lf || -1 == rf) {
-					    continue;
-					}
-					
-					long ff = lf * rf;
-					if (ff > max) {
-					    max = ff;
-					}
-				}
-				// 乘以 total 是为了扩大结果，不然 pf 的值太小了
-				double pf = (double) freq / max * total;
-				double pmi = Math.log(pf) / Math.log(2);
-				if ("乌龟".equals(word)) {
-				    System.out.println("freq:" + freq);
-				    System.out.println("max:" + max);
-				    System.out.println("total:" + total);
-				    System.out.println("pf:" + pf);
-				    System.out.println("pmi:" + pmi);
-				}
-				if (Double.isNaN(pmi)) {
-				    continue;
-				}
-				double pp = -1;
-				if (null != posProp.get(word.subSequence(0, 1)) 
-				        && null != posProp.get(word.subSequence(word.length() - 1, word.length()))) {
-				    
-				    pp = Math.min(posProp.get(word.subSequence(0, 1))[0], 
-				            posProp.get(word.subSequence(word.length() - 1, word.length()))[2]);
-				}
-				 
-				// || pp < 0.1   || DictionaryFactory.getDictionary().contains(word)
-                if (pmi < 5 || entropy < 1.85) {
-				    continue;
-				}
-				// 词    频次    点间互信息    熵    ngram
-				wordsFileWriter.write(word + "\t" + freq + "\t" + pmi + "\t" + entropy + "\t"  + pp + "\n");
+			if (_config.getScoringThreads() > 1) {
+			    cnt = scoreInParallel(entropyFileReader, freqIndex, total, posProp, wordsWriter);
+			} else {
+			    CandidateScorer scorer = new CandidateScorer(freqIndex, total, posProp);
+			    while (null != (record = entropyFileReader.readNext())) {
+			        cnt += 1;
+			        ScoredWord word = scorer.score(record);
+			        if (null != word) {
+			            wordsWriter.writeEntry(word);
+			        }
+			    }
 			}
 			
 			LOG.info("extract words done: " + cnt);
 			
-			wordsFileWriter.flush();
-			
-			LOG.info("start to sort extracted words");
-			
-			sort(wordsFile, wordsSortFile);
-
-			LOG.info("all done");
-			
 		} catch (IOException e) {
 		    LOG.error("extractWords error:", e);
+		    return;
+		}
+
+		// wordsWriter 已经关闭，words.data 写完了
+		if (null != topWords) {
+		    LOG.info("write top {} of {} extracted words", topK, topWords.getCount());
+		    writeTopWords(topWords, wordsSortFile);
+		} else {
+		    LOG.info("start to sort extracted words");
+		    sort(wordsFile, wordsSortFile);
 		}
+
+		LOG.info("all done");
+	}
+
+	/**
+	 * 多线程打分：entropy 文件按批读出，每批交给 ForkJoin 线程池打分，freq 索引只读、各线程共用。
+	 * 按提交顺序取回结果写出，所以输出和单线程一样；同时在算的批数有上限，内存不会随文件增长。
+	 * 
+	 * @return 读到的候选词数
+	 */
+	private int scoreInParallel(DataReader<NgramRecord> entropyFileReader, final FreqIndex freqIndex, final long total,
+	        final Map<String, double[]> posProp, DataWriter<ScoredWord> wordsWriter) throws IOException {
+	    final int threads = _config.getScoringThreads();
+	    ForkJoinPool pool = new ForkJoinPool(threads);
+	    ArrayDeque<Future<List<ScoredWord>>> pending = new ArrayDeque<>();
+	    int cnt = 0;
+	    try {
+	        while (true) {
+	            final List<NgramRecord> batch = new ArrayList<>(SCORING_BATCH);
+	            NgramRecord record = null;
+	            while (batch.size() < SCORING_BATCH && null != (record = entropyFileReader.readNext())) {
+	                batch.add(record);
+	            }
+	            cnt += batch.size();
+	            if (!batch.isEmpty()) {
+	                pending.add(pool.submit(new Callable<List<ScoredWord>>() {
+	                    @Override
+	                    public List<ScoredWord> call() {
+	                        CandidateScorer scorer = new CandidateScorer(freqIndex, total, posProp);
+	                        List<ScoredWord> words = new ArrayList<>();
+	                        for (NgramRecord r : batch) {
+	                            ScoredWord word = scorer.score(r);
+	                            if (null != word) {
+	                                words.add(word);
+	                            }
+	                        }
+	                        return words;
+	                    }
+	                }));
+	            }
+	            // 读完了就全部写出，否则只在排队的批数够多时写出最早的一批
+	            boolean done = batch.size() < SCORING_BATCH;
+	            while (!pending.isEmpty() && (done || pending.size() >= threads << 1)) {
+	                for (ScoredWord word : pending.poll().get()) {
+	                    wordsWriter.writeEntry(word);
+	                }
+	            }
+	            if (done) {
+	                return cnt;
+	            }
+	        }
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	        throw new InterruptedIOException("scoring interrupted");
+	    } catch (ExecutionException e) {
+	        throw new IOException("scoring error", e.getCause());
+	    } finally {
+	        pool.shutdownNow();
+	    }
 	}
 
+    private void writeTopWords(TopNCollector<ScoredWord> topWords, File wordsSortFile) {
+        try (final DataWriter<String> destination = LineWriter.factory().constructWriter(new PrintStream(wordsSortFile, "UTF-8"))) {
+            for (ScoredWord word : topWords.sortedEntries()) {
+                destination.writeEntry(word.line);
+            }
+        } catch (IOException e) {
+            LOG.error("write top words error:", e);
+        }
+    }
+
     private void sort(File wordsFile, File wordsSortFile) {
-        try (final SplitFileSorter sorter = new SplitFileSorter(new SortConfig());
+        try (final SplitFileSorter sorter = new SplitFileSorter(_config.getSortConfig());
                 final FileInputStream source = new FileInputStream(wordsFile);
                 final PrintStream destination = new PrintStream(wordsSortFile, "UTF-8")) {
 
@@ -657,4 +865,177 @@ public class FastBuilder {
             LOG.error("sort error:", e);
         }
     }
+
+    /**
+     * 同时交给右邻字、左邻字两个计数器统计，不需要的一边为 null
+     */
+    private static class NgramCounters implements SentenceHandler {
+
+        private final PackedNgramCounter right;
+
+        private final PackedNgramCounter left;
+
+        NgramCounters(PackedNgramCounter right, PackedNgramCounter left) {
+            this.right = right;
+            this.left = left;
+        }
+
+        @Override
+        public void sentence(char[] chars, int off, int len) throws IOException {
+            if (null != right) {
+                right.sentence(chars, off, len);
+            }
+            if (null != left) {
+                left.sentence(chars, off, len);
+            }
+        }
+
+        void flush() throws IOException {
+            if (null != right) {
+                right.flush();
+            }
+            if (null != left) {
+                left.flush();
+            }
+        }
+    }
+
+    /**
+     * 排好序的 ngram：两个方向最后一轮归并的结果，不需要的一边为 null
+     */
+    private static class SortedNgrams {
+
+        Iterator<byte[]> right;
+
+        Iterator<byte[]> left;
+    }
+
+    /**
+     * 一个线程生成的 ngram，写入各自的排序小文件
+     */
+    private static class NgramRuns extends NgramLineWriter {
+
+        private final NgramRunWriter right;
+
+        private final NgramRunWriter left;
+
+        NgramRuns(int maxLen, FrequentNgrams frequent, NgramRunWriter right, NgramRunWriter left) {
+            super(maxLen, frequent, right, left);
+            this.right = right;
+            this.left = left;
+        }
+    }
+
+    /**
+     * 按行写 words.data（UTF-8）
+     */
+    private static class WordsFileWriter extends DataWriter<ScoredWord> {
+
+        private final BufferedWriter out;
+
+        WordsFileWriter(File wordsFile) throws IOException {
+            this.out = Files.newWriter(wordsFile, Charsets.UTF_8);
+        }
+
+        @Override
+        public void writeEntry(ScoredWord word) throws IOException {
+            out.write(word.line);
+            out.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * 合格的候选词：写入 words.data 的一行，和排序用的词频
+     */
+    private static class ScoredWord {
+
+        /**
+         * 按词频从高到低排，直接用打分时的词频，不用再解析这一行
+         */
+        static final SortKey<ScoredWord> BY_FREQ = new SortKey<ScoredWord>() {
+            @Override
+            public double keyFor(ScoredWord word) {
+                return -word.freq;
+            }
+        };
+
+        final String line;
+
+        final int freq;
+
+        ScoredWord(String line, int freq) {
+            this.line = line;
+            this.freq = freq;
+        }
+    }
+
+    /**
+     * 给一个候选词打分：按所有切分算点间互信息，不合格返回 null，合格返回写入 words.data 的一行及其词频。
+     * 用到的 freq 索引和 posProp 都是只读的，每个线程各用一个实例即可。
+     */
+    private static class CandidateScorer {
+
+        private final FreqIndex freqIndex;
+
+        private final long total;
+
+        private final Map<String, double[]> posProp;
+
+        private long[] prefixFreqs = new long[16];
+
+        private long[] suffixFreqs = new long[16];
+
+        CandidateScorer(FreqIndex freqIndex, long total, Map<String, double[]> posProp) {
+            this.freqIndex = freqIndex;
+            this.total = total;
+            this.posProp = posProp;
+        }
+
+        ScoredWord score(NgramRecord record) {
+            String word = record.getWord();
+            // 英文单词或者数字
+            // 这个条件好像是多余的
+            if (allLetterOrNumber(word)) {
+                return null;
+            }
+            
+            int freq = record.getFreq();
+            double entropy = record.getEntropy();
+            // i = 1 过滤了长度为 1 的词
+            int splits = word.length() - 1;
+            if (splits > prefixFreqs.length) {
+                prefixFreqs = new long[splits];
+                suffixFreqs = new long[splits];
+            }
+            for (int i = 1; i < word.length(); ++i) {
+                // -1 表示没有这个词
+                prefixFreqs[i - 1] = freqIndex.get(word, 0, i);
+                suffixFreqs[i - 1] = freqIndex.get(word, i, word.length());
+            }
+            // 乘以 total 是为了扩大结果，不然 pf 的值太小了
+            double pmi = ScoringKernel.pmi(freq, prefixFreqs, suffixFreqs, splits, total);
+            if (Double.isNaN(pmi)) {
+                return null;
+            }
+            double pp = -1;
+            if (null != posProp.get(word.subSequence(0, 1)) 
+                    && null != posProp.get(word.subSequence(word.length() - 1, word.length()))) {
+                
+                pp = Math.min(posProp.get(word.subSequence(0, 1))[0], 
+                        posProp.get(word.subSequence(word.length() - 1, word.length()))[2]);
+            }
+             
+            // || pp < 0.1   || DictionaryFactory.getDictionary().contains(word)
+            if (pmi < 5 || entropy < 1.85) {
+                return null;
+            }
+            // 词    频次    点间互信息    熵    ngram
+            return new ScoredWord(word + "\t" + freq + "\t" + pmi + "\t" + entropy + "\t"  + pp, freq);
+        }
+    }
 }
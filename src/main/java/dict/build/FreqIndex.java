@@ -0,0 +1,252 @@
+package dict.build;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.fasterxml.sort.DataReader;
+
+/**
+ * Read-only index of word frequencies, kept in a file that is memory-mapped
+ * instead of loaded: lookups read the mapped pages directly, so opening the
+ * index takes no time and no heap, however many words it has.
+ *<p>
+ * The file is a static open-addressing hash table, built in one go from a
+ * file of {@link NgramRecord}s: a header (which also records length and
+ * modification time of the record file, see {@link #isBuiltFrom}), then the slots (each with offset of
+ * the key and its frequency; offset 0 means an empty slot), then keys as
+ * UTF-16 chars, each preceded by its length. Keys are compared as chars, so a
+ * lookup needs no encoding or substring of the word it is given.
+ */
+public class FreqIndex implements Closeable
+{
+    private final static int MAGIC = 0x46524932; // "FRI2"
+
+    private final static int HEADER_BYTES = 40;
+
+    private final static int SLOT_BYTES = 8;
+
+    /**
+     * Table has at least this many slots per 100 keys
+     */
+    private final static int SLOTS_PER_100_KEYS = 170;
+
+    /**
+     * Slots and keys are mapped as one buffer each, which limits both to 2 GB
+     */
+    private final static long MAX_REGION_BYTES = Integer.MAX_VALUE;
+
+    private final RandomAccessFile _file;
+
+    private final MappedByteBuffer _slots;
+
+    private final MappedByteBuffer _keys;
+
+    private final int _mask;
+
+    private final long _size;
+
+    private FreqIndex(RandomAccessFile file, MappedByteBuffer slots, MappedByteBuffer keys, long size)
+    {
+        _file = file;
+        _slots = slots;
+        _keys = keys;
+        _mask = (slots.capacity() / SLOT_BYTES) - 1;
+        _size = size;
+    }
+
+    /*
+    /**********************************************************************
+    /* Building, opening
+    /**********************************************************************
+     */
+
+    /**
+     * Writes an index of all words of given record file, which may not have the
+     * same word twice, to <code>indexFile</code>.
+     *
+     * @return Number of words indexed
+     */
+    public static long build(File recordFile, File indexFile) throws IOException
+    {
+        // taken before reading, so that a change while building makes the index stale
+        final long sourceLength = recordFile.length();
+        final long sourceModified = recordFile.lastModified();
+        // first pass just to size the table
+        long words = 0;
+        long keyChars = 0;
+        try (DataReader<NgramRecord> reader = NgramRecordReader.factory().constructReader(new FileInputStream(recordFile))) {
+            NgramRecord record;
+            while (null != (record = reader.readNext())) {
+                ++words;
+                keyChars += 1 + record.getWord().length();
+            }
+        }
+        long slots = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE >> 1,
+                Math.max(1L, words * SLOTS_PER_100_KEYS / 100))) << 1;
+        // offsets are stored as ints, and 0 means empty
+        if (slots * SLOT_BYTES > MAX_REGION_BYTES || keyChars * 2 + 2 > MAX_REGION_BYTES) {
+            throw new IOException("Too many words for a frequency index: " + words);
+        }
+        final long slotBytes = slots * SLOT_BYTES;
+        final long keyBytes = 2 + keyChars * 2;
+
+        indexFile.delete();
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+                DataReader<NgramRecord> reader = NgramRecordReader.factory().constructReader(new FileInputStream(recordFile))) {
+            file.setLength(HEADER_BYTES + slotBytes + keyBytes);
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            MappedByteBuffer slotBuf = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, slotBytes);
+            MappedByteBuffer keyBuf = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + slotBytes, keyBytes);
+            final int mask = (int) slots - 1;
+            // keys start at char 1, so that no key has offset 0
+            int keyOffset = 1;
+            NgramRecord record;
+            while (null != (record = reader.readNext())) {
+                final String word = record.getWord();
+                int slot = _hash(word, 0, word.length()) & mask;
+                while (slotBuf.getInt(slot * SLOT_BYTES) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotBuf.putInt(slot * SLOT_BYTES, keyOffset);
+                slotBuf.putInt(slot * SLOT_BYTES + 4, record.getFreq());
+                keyBuf.putChar(keyOffset * 2, (char) word.length());
+                for (int i = 0; i < word.length(); ++i) {
+                    keyBuf.putChar((keyOffset + 1 + i) * 2, word.charAt(i));
+                }
+                keyOffset += 1 + word.length();
+            }
+            slotBuf.force();
+            keyBuf.force();
+            header.putInt(0, MAGIC);
+            header.putInt(4, (int) slots);
+            header.putLong(8, words);
+            header.putLong(16, keyBytes);
+            header.putLong(24, sourceLength);
+            header.putLong(32, sourceModified);
+            header.force();
+        }
+        return words;
+    }
+
+    /**
+     * Checks whether given index was built from the current version of given
+     * record file: length and modification time of the record file must be
+     * the same as when the index was built. Comparing them for equality, and
+     * not just checking that the index is newer, also catches a record file
+     * rewritten within the resolution of file times.
+     *
+     * @return False if the index is missing, is not a valid index, or was built
+     *    from another version of the record file
+     */
+    public static boolean isBuiltFrom(File indexFile, File recordFile) throws IOException
+    {
+        if (!indexFile.exists() || indexFile.length() < HEADER_BYTES) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            if (file.readInt() != MAGIC) {
+                return false;
+            }
+            file.seek(24);
+            return file.readLong() == recordFile.length()
+                    && file.readLong() == recordFile.lastModified();
+        }
+    }
+
+    /**
+     * Maps an index written by {@link #build}.
+     */
+    public static FreqIndex open(File indexFile) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a frequency index: " + indexFile);
+            }
+            final long slotBytes = (long) header.getInt(4) * SLOT_BYTES;
+            final long keyBytes = header.getLong(16);
+            if (HEADER_BYTES + slotBytes + keyBytes != file.length()) {
+                throw new IOException("Truncated frequency index: " + indexFile);
+            }
+            return new FreqIndex(file,
+                    channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, slotBytes),
+                    channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + slotBytes, keyBytes),
+                    header.getLong(8));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // mappings stay valid until collected, but the file is no longer needed for them
+        _file.close();
+    }
+
+    /*
+    /**********************************************************************
+    /* Lookups
+    /**********************************************************************
+     */
+
+    /**
+     * @return Number of words in the index
+     */
+    public long size() {
+        return _size;
+    }
+
+    public int get(CharSequence word) {
+        return get(word, 0, word.length());
+    }
+
+    /**
+     * @return Frequency of the word that is given range of <code>text</code>,
+     *    or -1 if not in the index
+     */
+    public int get(CharSequence text, int start, int end)
+    {
+        final MappedByteBuffer slots = _slots;
+        final MappedByteBuffer keys = _keys;
+        final int len = end - start;
+        int slot = _hash(text, start, end) & _mask;
+        while (true) {
+            final int offset = slots.getInt(slot * SLOT_BYTES);
+            if (offset == 0) {
+                return -1;
+            }
+            if (keys.getChar(offset * 2) == len && _matches(keys, offset + 1, text, start, len)) {
+                return slots.getInt(slot * SLOT_BYTES + 4);
+            }
+            slot = (slot + 1) & _mask;
+        }
+    }
+
+    private static boolean _matches(MappedByteBuffer keys, int offset, CharSequence text, int start, int len)
+    {
+        for (int i = 0; i < len; ++i) {
+            if (keys.getChar((offset + i) * 2) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int _hash(CharSequence text, int start, int end)
+    {
+        int h = 0x811C9DC5;
+        for (int i = start; i < end; ++i) {
+            h = (h ^ text.charAt(i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
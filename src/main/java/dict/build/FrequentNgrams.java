@@ -0,0 +1,287 @@
+package dict.build;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Set of all words of up to <code>maxWordLen</code> characters that occur at
+ * least <code>minFreq</code> times, found Apriori-style with one pass over the
+ * text per word length: pass <code>k</code> only counts k-grams whose prefix
+ * and suffix (k-1)-grams were frequent, since no other k-gram can be.
+ *<p>
+ * The set is closed under taking prefixes and suffixes, so {@link #frequentPrefix}
+ * can stop at the first word that is not in the set. Words are kept as packed
+ * keys of {@link CharAlphabet} ids, like in {@link PackedNgramCounter}.
+ *<p>
+ * The first pass, which looks at every position of the text, also estimates
+ * the number of distinct words of all lengths, frequent or not, with a
+ * {@link HyperLogLog}: words left out of the set still count towards the
+ * total used for scoring.
+ */
+public class FrequentNgrams
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FrequentNgrams.class);
+
+    /**
+     * Precision of the distinct word estimate: a megabyte of registers per
+     * thread, for an error of about 0.1%
+     */
+    private static final int DISTINCT_WORDS_PRECISION = 20;
+
+    private final CharAlphabet _alphabet;
+
+    private final int _maxWordLen;
+
+    private final int _bits;
+
+    private final int _minFreq;
+
+    /**
+     * Frequent words of all lengths found so far, with their counts
+     */
+    private final PackedNgramTable _frequent;
+
+    /**
+     * Distinct words of all lengths, frequent or not
+     */
+    private final HyperLogLog _distinctWords = new HyperLogLog(DISTINCT_WORDS_PRECISION);
+
+    private FrequentNgrams(CharAlphabet alphabet, int maxWordLen, int minFreq, long maxMemory)
+        throws PackedNgramTable.TableFullException
+    {
+        _alphabet = alphabet;
+        _maxWordLen = maxWordLen;
+        _bits = alphabet.bits();
+        _minFreq = minFreq;
+        _frequent = new PackedNgramTable(_isWide(), maxMemory);
+    }
+
+    /**
+     * @return True if words of <code>maxWordLen</code> characters of given alphabet fit in a key
+     */
+    public static boolean fits(CharAlphabet alphabet, int maxWordLen) {
+        return maxWordLen * alphabet.bits() <= 128;
+    }
+
+    /**
+     * Finds frequent words of the given raw file, reading it once per word length.
+     * Half of the memory is used for the set itself and half for counting
+     * candidates of a single pass.
+     *
+     * @throws PackedNgramTable.TableFullException If either would need more memory
+     */
+    public static FrequentNgrams collect(File rawFile, int threads, CharAlphabet alphabet,
+            int maxWordLen, int minFreq, long maxMemory)
+        throws IOException
+    {
+        if (!fits(alphabet, maxWordLen)) {
+            throw new IllegalArgumentException("Can not pack " + maxWordLen + " characters of "
+                    + alphabet.bits() + " bits each");
+        }
+        final FrequentNgrams result = new FrequentNgrams(alphabet, maxWordLen, minFreq, maxMemory >> 1);
+        final long passMemory = maxMemory >> 1;
+        final long partialMemory = passMemory / (threads << 2);
+        ParallelIngester ingester = new ParallelIngester(rawFile, threads);
+        for (int length = 1; length <= maxWordLen; ++length) {
+            final PackedNgramTable candidates = new PackedNgramTable(result._isWide(), passMemory);
+            final int wordLen = length;
+            ingester.ingest(new ParallelIngester.RangeHandlerFactory<CandidateCounter>() {
+                @Override
+                public CandidateCounter create() throws IOException {
+                    return result.new CandidateCounter(wordLen, candidates, partialMemory);
+                }
+
+                @Override
+                public void done(CandidateCounter counter) throws IOException {
+                    counter.flush();
+                }
+            });
+            int before = result._frequent.size();
+            result._frequent.addAll(candidates, minFreq);
+            int found = result._frequent.size() - before;
+            LOG.info("{} of {} candidate {}-grams occur at least {} times",
+                    new Object[] { found, candidates.size(), length, minFreq });
+            if (found == 0) {
+                break;
+            }
+        }
+        LOG.info("estimated number of distinct words: {}", result.estimateDistinctWords());
+        return result;
+    }
+
+    /*
+    /**********************************************************************
+    /* Lookups
+    /**********************************************************************
+     */
+
+    /**
+     * Finds the longest frequent word at the start of given characters.
+     *
+     * @param chars Characters to look at
+     * @param off Offset of the first character of the word
+     * @param max Maximum length of word to consider
+     * @param reversed Whether characters are in reverse order: if true, the word
+     *   of length <code>n</code> is <code>chars[off + n - 1], ..., chars[off]</code>
+     *
+     * @return Length of the longest frequent word, 0 if even the first character is not frequent
+     */
+    public int frequentPrefix(char[] chars, int off, int max, boolean reversed)
+    {
+        max = Math.min(max, _maxWordLen);
+        int length = 0;
+        while (length < max && _isFrequent(chars, off, length + 1, reversed)) {
+            ++length;
+        }
+        return length;
+    }
+
+    public int getMinFreq() {
+        return _minFreq;
+    }
+
+    /**
+     * @return Estimated number of distinct words of up to <code>maxWordLen</code>
+     *    characters in the text, including ones that are not frequent
+     */
+    public long estimateDistinctWords() {
+        return _distinctWords.estimate();
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private boolean _isWide() {
+        return _maxWordLen * _bits > 64;
+    }
+
+    private boolean _isFrequent(char[] chars, int off, int length, boolean reversed)
+    {
+        long hi = 0L, lo = 0L;
+        for (int i = 0; i < length; ++i) {
+            int id = _alphabet.id(reversed ? chars[off + length - 1 - i] : chars[off + i]);
+            if (id == CharAlphabet.PAD) {
+                return false;
+            }
+            int shift = i * _bits;
+            if (shift >= 64) {
+                hi |= ((long) id) << (shift - 64);
+            } else {
+                lo |= ((long) id) << shift;
+                if (shift + _bits > 64) {
+                    hi |= ((long) id) >>> (64 - shift);
+                }
+            }
+        }
+        return _frequent.get(hi, lo) > 0;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Counts candidate words of one length in a table of its own, moving counts
+     * to the table shared by all workers when it gets full and when done.
+     */
+    private class CandidateCounter implements SentenceHandler
+    {
+        private final int _length;
+
+        private final PackedNgramTable _target;
+
+        private final PackedNgramTable _counts;
+
+        /**
+         * Distinct words seen by this counter; only counted in the first pass
+         */
+        private final HyperLogLog _words;
+
+        public CandidateCounter(int length, PackedNgramTable target, long maxMemory)
+            throws PackedNgramTable.TableFullException
+        {
+            _length = length;
+            _target = target;
+            _counts = new PackedNgramTable(_isWide(), maxMemory);
+            _words = (length == 1) ? new HyperLogLog(DISTINCT_WORDS_PRECISION) : null;
+        }
+
+        @Override
+        public void sentence(char[] chars, int off, int len) throws IOException
+        {
+            final int length = _length;
+            if (_words != null) {
+                _addWords(chars, off, len);
+            }
+            for (int start = off, end = off + len - length; start <= end; ++start) {
+                if (length > 1 && !(_isFrequent(chars, start, length - 1, false)
+                        && _isFrequent(chars, start + 1, length - 1, false))) {
+                    continue;
+                }
+                long hi = 0L, lo = 0L;
+                for (int i = 0; i < length; ++i) {
+                    int id = _alphabet.id(chars[start + i]);
+                    int shift = i * _bits;
+                    if (shift >= 64) {
+                        hi |= ((long) id) << (shift - 64);
+                    } else {
+                        lo |= ((long) id) << shift;
+                        if (shift + _bits > 64) {
+                            hi |= ((long) id) >>> (64 - shift);
+                        }
+                    }
+                }
+                try {
+                    _counts.add(hi, lo, 1);
+                } catch (PackedNgramTable.TableFullException e) {
+                    flush();
+                    _counts.add(hi, lo, 1);
+                }
+            }
+        }
+
+        public void flush() throws PackedNgramTable.TableFullException
+        {
+            synchronized (_target) {
+                _target.addAll(_counts);
+                if (_words != null) {
+                    _distinctWords.addAll(_words);
+                }
+            }
+            _counts.clear();
+        }
+
+        /**
+         * Adds every word of up to <code>maxWordLen</code> characters of the sentence
+         */
+        private void _addWords(char[] chars, int off, int len)
+        {
+            final int sentenceEnd = off + len;
+            for (int start = off; start < sentenceEnd; ++start) {
+                final int max = Math.min(_maxWordLen, sentenceEnd - start);
+                long hi = 0L, lo = 0L;
+                for (int i = 0; i < max; ++i) {
+                    int id = _alphabet.id(chars[start + i]);
+                    int shift = i * _bits;
+                    if (shift >= 64) {
+                        hi |= ((long) id) << (shift - 64);
+                    } else {
+                        lo |= ((long) id) << shift;
+                        if (shift + _bits > 64) {
+                            hi |= ((long) id) >>> (64 - shift);
+                        }
+                    }
+                    _words.add(hi, lo);
+                }
+            }
+        }
+    }
+}
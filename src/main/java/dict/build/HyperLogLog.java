@@ -0,0 +1,92 @@
+package dict.build;
+
+/**
+ * HyperLogLog estimator for the number of distinct packed n-gram keys, using
+ * one byte per register. With <code>2^precision</code> registers, the
+ * standard error of the estimate is about <code>1.04 / sqrt(2^precision)</code>.
+ */
+public class HyperLogLog
+{
+    public final static int DEFAULT_PRECISION = 14;
+
+    private final int _precision;
+
+    private final byte[] _registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision)
+    {
+        if (precision < 4 || precision > 24) {
+            throw new IllegalArgumentException("Illegal precision: " + precision);
+        }
+        _precision = precision;
+        _registers = new byte[1 << precision];
+    }
+
+    public void add(long hi, long lo)
+    {
+        long h = lo * 0xC2B2AE3D27D4EB4FL + hi;
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= (h >>> 33);
+        final int index = (int) (h >>> (64 - _precision));
+        // rank of the first 1 bit in the rest of the hash; the guard bit caps it
+        final int rank = Long.numberOfLeadingZeros((h << _precision) | (1L << (_precision - 1))) + 1;
+        if (_registers[index] < rank) {
+            _registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Adds all keys added to another estimator of the same precision, so that
+     * estimators filled by separate threads can be combined.
+     */
+    public void addAll(HyperLogLog other)
+    {
+        if (other._precision != _precision) {
+            throw new IllegalArgumentException("Precision " + other._precision + " differs from " + _precision);
+        }
+        final byte[] registers = _registers;
+        final byte[] others = other._registers;
+        for (int i = 0; i < registers.length; ++i) {
+            if (registers[i] < others[i]) {
+                registers[i] = others[i];
+            }
+        }
+    }
+
+    /**
+     * @return Estimated number of distinct keys added
+     */
+    public long estimate()
+    {
+        final int m = _registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte register : _registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                ++zeros;
+            }
+        }
+        double alpha = 0.7213 / (1.0 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return Memory used by the registers
+     */
+    public long bytes() {
+        return _registers.length;
+    }
+}
@@ -8,8 +8,9 @@ public class Main {
 		
 		FastBuilder builder = new FastBuilder();
 
-		String rightNgramFreqSortFilePath = builder.genRightNgramFreqSortFile(rawpath, 6);
-		String leftNgramFreqSortFilePath = builder.genLeftNgramFreqSortFile(rawpath, 6);
+		String[] ngramFreqSortFilePaths = builder.genNgramFreqSortFiles(rawpath, 6);
+		String rightNgramFreqSortFilePath = ngramFreqSortFilePaths[0];
+		String leftNgramFreqSortFilePath = ngramFreqSortFilePaths[1];
 		String entropyFilePath = builder.mergeEntropy(rightNgramFreqSortFilePath, leftNgramFreqSortFilePath);
 
 		builder.extractWords(rightNgramFreqSortFilePath, entropyFilePath);
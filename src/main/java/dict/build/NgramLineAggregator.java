@@ -0,0 +1,322 @@
+package dict.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.fasterxml.sort.DataReader;
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.SortConfig;
+import com.fasterxml.sort.TempFileProvider;
+
+/**
+ * Computes frequency and neighbor entropy of words from sorted n-gram lines,
+ * where every prefix of a line (but the whole line) is a word, and the
+ * character following it is its neighbor.
+ *<p>
+ * Since lines are sorted, all lines starting with a word are next to each
+ * other, and a word is complete as soon as a line does not start with it.
+ * Words that may still continue are kept on a stack indexed by length: they
+ * are exactly the prefixes of the last line. Each level of the stack counts
+ * neighbors in a {@link CharCounter} that is reset and reused for the next
+ * word of that length, so memory needed is bounded by line length times
+ * alphabet size, however many lines share a prefix, and counting allocates
+ * nothing.
+ *<p>
+ * Words are completed after their extensions (longest first), but records of
+ * right neighbors are written in sorted order of words, which puts a word
+ * before all of its extensions. So each open word keeps the records of its
+ * completed extensions, in order; when it completes, its own record and then
+ * those are appended to the records kept by the open word one character
+ * shorter, and the single-character word writes them all out. Records of left
+ * neighbors are of reversed words, which could not be kept in order this way,
+ * so they are written as soon as they complete.
+ *<p>
+ * Records kept for right neighbors are all those starting with the same
+ * character, which can be a large part of the output; once they take more
+ * than the memory limit, they are spilled to temporary files (one per
+ * in-memory run of records) and copied back when written out. Records are
+ * then written and read once more, instead of being sorted again.
+ */
+public class NgramLineAggregator
+{
+    private final DataWriter<NgramRecord> _out;
+
+    /**
+     * Whether lines are reversed: if so, words are written reversed back, without
+     * frequency, as records of left neighbor entropy
+     */
+    private final boolean _reversed;
+
+    private final int _minFreq;
+
+    /**
+     * Memory that records kept for right neighbors may take before they are spilled
+     */
+    private final long _maxMemory;
+
+    private final TempFileProvider _tempFileProvider;
+
+    /**
+     * Previous line; open words are its prefixes
+     */
+    private String _prev = "";
+
+    /**
+     * Number of open words, one for each length from 1
+     */
+    private int _open;
+
+    /**
+     * For each open word (indexed by length): counts of its neighbors so far
+     */
+    private CharCounter[] _neighbors = new CharCounter[16];
+
+    /**
+     * For each open word (indexed by length): records of its extensions completed
+     * so far, in sorted order (right neighbors only)
+     */
+    private Extensions[] _extensions = new Extensions[16];
+
+    /**
+     * Estimated memory used by records kept in memory
+     */
+    private long _memory;
+
+    /**
+     * Number of words completed, including ones left out
+     */
+    private long _wordCount;
+
+    /**
+     * @param out Writer for records of words
+     * @param reversed Whether lines are of reversed sentences (for left neighbors)
+     * @param minFreq Words occurring less often are left out
+     */
+    public NgramLineAggregator(DataWriter<NgramRecord> out, boolean reversed, int minFreq)
+    {
+        this(out, reversed, minFreq, new SortConfig());
+    }
+
+    /**
+     * @param config Memory limit for records kept in order and provider of files
+     *    to spill them to
+     */
+    public NgramLineAggregator(DataWriter<NgramRecord> out, boolean reversed, int minFreq,
+            SortConfig config)
+    {
+        _out = out;
+        _reversed = reversed;
+        _minFreq = minFreq;
+        _maxMemory = config.getMaxMemoryUsage();
+        _tempFileProvider = config.getTempFileProvider();
+    }
+
+    /**
+     * Adds the next line, which must not sort before the previous one.
+     */
+    public void line(String line) throws IOException
+    {
+        final String prev = _prev;
+        final int max = Math.min(_open, line.length() - 1);
+        int common = 0;
+        while (common < max && line.charAt(common) == prev.charAt(common)) {
+            ++common;
+        }
+        // longer words of previous line end here
+        for (int len = _open; len > common; --len) {
+            _emit(prev, len);
+        }
+        final int words = Math.max(0, line.length() - 1);
+        if (words >= _neighbors.length) {
+            _neighbors = Arrays.copyOf(_neighbors, Math.max(words + 1, _neighbors.length << 1));
+            _extensions = Arrays.copyOf(_extensions, _neighbors.length);
+        }
+        for (int len = 1; len <= words; ++len) {
+            CharCounter neighbors = _neighbors[len];
+            if (neighbors == null) {
+                neighbors = _neighbors[len] = new CharCounter();
+            } else if (len > common) {
+                neighbors.reset();
+            }
+            if (len > common && !_reversed && _extensions[len] == null) {
+                _extensions[len] = new Extensions();
+            }
+            neighbors.incr(line.charAt(len));
+        }
+        _open = words;
+        _prev = line;
+    }
+
+    /**
+     * Completes all words still open; must be called after the last line.
+     */
+    public void finish() throws IOException
+    {
+        for (int len = _open; len > 0; --len) {
+            _emit(_prev, len);
+        }
+        _open = 0;
+        _prev = "";
+    }
+
+    /**
+     * @return Number of distinct words completed so far, including ones that
+     *    occur less than <code>minFreq</code> times and were left out
+     */
+    public long getWordCount() {
+        return _wordCount;
+    }
+
+    private void _emit(String line, int len) throws IOException
+    {
+        ++_wordCount;
+        final CharCounter neighbors = _neighbors[len];
+        final int freq = neighbors.total();
+        if (_reversed) {
+            if (freq >= _minFreq) {
+                char[] word = new char[len];
+                for (int i = 0; i < len; ++i) {
+                    word[i] = line.charAt(len - 1 - i);
+                }
+                // frequency is the same in both directions, so it is only kept for right neighbors
+                _out.writeEntry(new NgramRecord(new String(word), 0, neighbors.entropy()));
+            }
+            return;
+        }
+        final NgramRecord record = (freq >= _minFreq)
+                ? new NgramRecord(line.substring(0, len), freq, neighbors.entropy()) : null;
+        final Extensions extensions = _extensions[len];
+        if (len == 1) {
+            if (record != null) {
+                _out.writeEntry(record);
+            }
+            _writeOut(extensions);
+            return;
+        }
+        // word sorts after shorter words, but before its extensions
+        final Extensions target = _extensions[len - 1];
+        if (record != null) {
+            target.last().add(record);
+            _memory += _estimateSize(record);
+        }
+        extensions.moveTo(target);
+        if (_memory > _maxMemory) {
+            _spill();
+        }
+    }
+
+    /**
+     * Writes out all records kept, which are those of the completed single-character word
+     */
+    private void _writeOut(Extensions extensions) throws IOException
+    {
+        for (Object part : extensions.parts) {
+            if (part instanceof File) {
+                File file = (File) part;
+                try (DataReader<NgramRecord> reader = NgramRecordReader.factory().constructReader(new FileInputStream(file))) {
+                    NgramRecord record;
+                    while ((record = reader.readNext()) != null) {
+                        _out.writeEntry(record);
+                    }
+                }
+                file.delete();
+            } else {
+                for (NgramRecord record : Extensions.records(part)) {
+                    _out.writeEntry(record);
+                }
+            }
+        }
+        extensions.parts.clear();
+        _memory = 0L;
+    }
+
+    /**
+     * Moves all records kept in memory to temporary files, keeping their order
+     */
+    private void _spill() throws IOException
+    {
+        for (Extensions extensions : _extensions) {
+            if (extensions == null) {
+                continue;
+            }
+            final ArrayList<Object> parts = extensions.parts;
+            for (int i = 0, end = parts.size(); i < end; ++i) {
+                Object part = parts.get(i);
+                if (part instanceof File) {
+                    continue;
+                }
+                File file = _tempFileProvider.provide();
+                try (DataWriter<NgramRecord> writer = NgramRecordWriter.factory().constructWriter(new FileOutputStream(file))) {
+                    for (NgramRecord record : Extensions.records(part)) {
+                        writer.writeEntry(record);
+                    }
+                }
+                parts.set(i, file);
+            }
+        }
+        _memory = 0L;
+    }
+
+    private static int _estimateSize(NgramRecord record)
+    {
+        // reference in list, record object with its fields, plus key array
+        int bytes = record.getKey().length;
+        bytes = ((bytes + 3) >> 2) << 2;
+        return 8 + 40 + 16 + bytes;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Records kept for an open word, in order: runs of them in memory, and
+     * files that runs were spilled to
+     */
+    private final static class Extensions
+    {
+        final ArrayList<Object> parts = new ArrayList<Object>();
+
+        @SuppressWarnings("unchecked")
+        static ArrayList<NgramRecord> records(Object part) {
+            return (ArrayList<NgramRecord>) part;
+        }
+
+        /**
+         * @return Run of records in memory to add records to
+         */
+        ArrayList<NgramRecord> last()
+        {
+            if (!parts.isEmpty()) {
+                Object part = parts.get(parts.size() - 1);
+                if (!(part instanceof File)) {
+                    return records(part);
+                }
+            }
+            ArrayList<NgramRecord> run = new ArrayList<NgramRecord>();
+            parts.add(run);
+            return run;
+        }
+
+        /**
+         * Appends all records to given target, and removes them from this instance
+         */
+        void moveTo(Extensions target)
+        {
+            for (Object part : parts) {
+                if (part instanceof File) {
+                    target.parts.add(part);
+                } else if (!records(part).isEmpty()) {
+                    target.last().addAll(records(part));
+                }
+            }
+            parts.clear();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package dict.build;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import com.google.common.base.Charsets;
+
+import com.fasterxml.sort.DataReader;
+import com.fasterxml.sort.DataWriter;
+
+/**
+ * {@link DataReader} of the records that a {@link NgramLineAggregator} produces
+ * from sorted n-gram lines, aggregating lines only as records are read. Feeding
+ * it to a sorter directly sorts records without writing them to a file first.
+ */
+public class NgramLineRecordReader extends DataReader<NgramRecord>
+{
+    private final DataReader<byte[]> _in;
+
+    private final NgramLineAggregator _aggregator;
+
+    /**
+     * Records completed by the aggregator but not yet read
+     */
+    private final ArrayDeque<NgramRecord> _records = new ArrayDeque<NgramRecord>();
+
+    private boolean _closed;
+
+    /**
+     * @param in Sorted n-gram lines, in UTF-8
+     * @param reversed Whether lines are of reversed sentences (for left neighbors)
+     * @param minFreq Words occurring less often are left out
+     */
+    public NgramLineRecordReader(DataReader<byte[]> in, boolean reversed, int minFreq)
+    {
+        _in = in;
+        _aggregator = new NgramLineAggregator(new DataWriter<NgramRecord>() {
+            @Override
+            public void writeEntry(NgramRecord item) {
+                _records.add(item);
+            }
+
+            @Override
+            public void close() { }
+        }, reversed, minFreq);
+    }
+
+    @Override
+    public NgramRecord readNext() throws IOException
+    {
+        while (_records.isEmpty()) {
+            if (_closed) {
+                return null;
+            }
+            byte[] line = _in.readNext();
+            if (line == null) {
+                _aggregator.finish();
+                close();
+            } else {
+                _aggregator.line(new String(line, Charsets.UTF_8));
+            }
+        }
+        return _records.poll();
+    }
+
+    @Override
+    public int estimateSizeInBytes(NgramRecord item)
+    {
+        // same estimate as for records read from a file
+        int bytes = item.getKey().length;
+        bytes = ((bytes + 3) >> 2) << 2;
+        return 40 + 16 + bytes;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            _closed = true;
+            _in.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package dict.build;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.sort.DataWriter;
+import com.google.common.base.Charsets;
+
+/**
+ * {@link SentenceHandler} that writes n-gram lines for the external sort:
+ * for every start position in a sentence, the next <code>maxLen</code>
+ * characters, with <code>$</code> marking the end of sentence. Lines for
+ * right neighbors come from the sentence as is, lines for left neighbors
+ * from the reversed sentence; either writer may be null if that side
+ * is not needed.
+ *<p>
+ * Each sentence is encoded into UTF-8 just once, in a reusable buffer,
+ * and every line is copied out of it; so the only object created per
+ * line is the byte array passed to the writer.
+ *<p>
+ * If {@link FrequentNgrams} are given, each line is cut after the longest
+ * frequent word at its start (plus the neighbor that follows it), and lines
+ * starting with an infrequent character are skipped: counts and entropies of
+ * frequent words stay the same, while rare n-grams never reach the sort.
+ */
+public class NgramLineWriter implements SentenceHandler
+{
+    private final int _maxLen;
+
+    private final DataWriter<byte[]> _right;
+
+    private final DataWriter<byte[]> _left;
+
+    /**
+     * Words that lines are cut to, if any
+     */
+    private final FrequentNgrams _frequent;
+
+    /**
+     * Sentence (possibly reversed) followed by <code>$</code>
+     */
+    private char[] _chars = new char[256];
+
+    /**
+     * UTF-8 encoding of {@link #_chars}
+     */
+    private byte[] _bytes = new byte[256 * 3];
+
+    /**
+     * Offset in {@link #_bytes} for each character of {@link #_chars}, plus end offset
+     */
+    private int[] _offsets = new int[257];
+
+    public NgramLineWriter(int maxLen, DataWriter<byte[]> right, DataWriter<byte[]> left)
+    {
+        this(maxLen, null, right, left);
+    }
+
+    /**
+     * @param frequent Frequent words to cut lines to; null to write all lines in full
+     */
+    public NgramLineWriter(int maxLen, FrequentNgrams frequent, DataWriter<byte[]> right, DataWriter<byte[]> left)
+    {
+        _maxLen = maxLen;
+        _frequent = frequent;
+        _right = right;
+        _left = left;
+    }
+
+    @Override
+    public void sentence(char[] chars, int off, int len) throws IOException
+    {
+        if (_chars.length <= len) {
+            _chars = new char[len + 1];
+            _bytes = new byte[(len + 1) * 3];
+            _offsets = new int[len + 2];
+        }
+        final char[] sen = _chars;
+        if (_right != null) {
+            System.arraycopy(chars, off, sen, 0, len);
+            sen[len] = CharAlphabet.BOUNDARY_CHAR;
+            _writeNgrams(_right, len, false);
+        }
+        if (_left != null) {
+            // 反转  123 -> 321
+            for (int i = 0, j = off + len - 1; i < len; ++i, --j) {
+                sen[i] = chars[j];
+            }
+            sen[len] = CharAlphabet.BOUNDARY_CHAR;
+            _writeNgrams(_left, len, true);
+        }
+    }
+
+    /**
+     * @param reversed Whether {@link #_chars} has the sentence reversed
+     */
+    private void _writeNgrams(DataWriter<byte[]> writer, int len, boolean reversed) throws IOException
+    {
+        final char[] sen = _chars;
+        final int total = len + 1;
+        final boolean encoded = _encode(total);
+        final byte[] bytes = _bytes;
+        final int[] offsets = _offsets;
+        for (int i = 0; i < len; ++i) {
+            int lineLen = Math.min(_maxLen, total - i);
+            if (_frequent != null) {
+                int wordLen = _frequent.frequentPrefix(sen, i, lineLen - 1, reversed);
+                if (wordLen == 0) {
+                    continue;
+                }
+                lineLen = wordLen + 1;
+            }
+            if (encoded) {
+                writer.writeEntry(Arrays.copyOfRange(bytes, offsets[i], offsets[i + lineLen]));
+            } else {
+                // surrogates: encode each line on its own, so that pairs split by line
+                // boundaries come out the same as with String.getBytes()
+                writer.writeEntry(new String(sen, i, lineLen).getBytes(Charsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Encodes first <code>count</code> characters of {@link #_chars} as UTF-8.
+     *
+     * @return False if there are surrogates, which are not encoded here
+     */
+    private boolean _encode(int count)
+    {
+        final char[] sen = _chars;
+        final byte[] bytes = _bytes;
+        final int[] offsets = _offsets;
+        int ptr = 0;
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = ptr;
+            char c = sen[i];
+            if (c < 0x80) {
+                bytes[ptr++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[ptr++] = (byte) (0xC0 | (c >> 6));
+                bytes[ptr++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                return false;
+            } else {
+                bytes[ptr++] = (byte) (0xE0 | (c >> 12));
+                bytes[ptr++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[ptr++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        offsets[count] = ptr;
+        return true;
+    }
+}
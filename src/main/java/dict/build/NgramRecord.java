@@ -0,0 +1,70 @@
+package dict.build;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Single record of the freq/entropy stage files: a word (kept as UTF-8 bytes,
+ * decoded only when needed), its frequency and entropy of its neighbors.
+ * Records of left neighbor entropy have no frequency, which is marked by
+ * frequency of 0.
+ */
+public class NgramRecord
+{
+    private final byte[] _key;
+
+    /**
+     * Word decoded from {@link #_key}, if already needed
+     */
+    private String _word;
+
+    private final int _freq;
+
+    private final double _entropy;
+
+    public NgramRecord(String word, int freq, double entropy)
+    {
+        _key = word.getBytes(Charsets.UTF_8);
+        _word = word;
+        _freq = freq;
+        _entropy = entropy;
+    }
+
+    public NgramRecord(byte[] key, int freq, double entropy)
+    {
+        _key = key;
+        _freq = freq;
+        _entropy = entropy;
+    }
+
+    /**
+     * @return Word as UTF-8 bytes; caller must not modify the array
+     */
+    public byte[] getKey() { return _key; }
+
+    public String getWord()
+    {
+        String word = _word;
+        if (word == null) {
+            _word = word = new String(_key, Charsets.UTF_8);
+        }
+        return word;
+    }
+
+    /**
+     * @return Frequency of the word, or 0 for records that only have left neighbor entropy
+     */
+    public int getFreq() { return _freq; }
+
+    public double getEntropy() { return _entropy; }
+
+    public boolean hasFreq() { return _freq > 0; }
+
+    @Override
+    public String toString()
+    {
+        if (hasFreq()) {
+            return getWord() + FastBuilder.TAB + _freq + FastBuilder.TAB + _entropy;
+        }
+        return getWord() + FastBuilder.TAB + _entropy;
+    }
+}
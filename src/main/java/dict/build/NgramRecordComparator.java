@@ -0,0 +1,38 @@
+package dict.build;
+
+import java.util.Comparator;
+
+/**
+ * Comparator that orders {@link NgramRecord}s by their UTF-8 keys, comparing
+ * <code>unsigned</code> byte values; that is, in the same order as sorting
+ * text lines of the records would. Records with the same key are ordered by
+ * frequency, so that left neighbor entropy records come first.
+ */
+public class NgramRecordComparator implements Comparator<NgramRecord>
+{
+    @Override
+    public int compare(NgramRecord o1, NgramRecord o2)
+    {
+        final int diff = compareKeys(o1.getKey(), o2.getKey());
+        if (diff != 0) {
+            return diff;
+        }
+        return Integer.compare(o1.getFreq(), o2.getFreq());
+    }
+
+    /**
+     * Compares UTF-8 keys of records, as unsigned bytes; shorter keys sort
+     * before longer ones they are a prefix of.
+     */
+    public static int compareKeys(byte[] b1, byte[] b2)
+    {
+        final int len = Math.min(b1.length, b2.length);
+        for (int i = 0; i < len; ++i) {
+            int diff = (b1[i] & 0xFF) - (b2[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return b1.length - b2.length;
+    }
+}
@@ -0,0 +1,159 @@
+package dict.build;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.sort.DataReader;
+import com.fasterxml.sort.DataReaderFactory;
+
+/**
+ * Reader for files written by {@link NgramRecordWriter}.
+ */
+public class NgramRecordReader
+    extends DataReader<NgramRecord>
+{
+    protected final InputStream _in;
+
+    protected boolean _closed = false;
+
+    protected byte[] _inputBuffer = new byte[16000];
+    protected int _inputPtr = 0;
+    protected int _inputEnd = 0;
+
+    public NgramRecordReader(InputStream in)
+    {
+        _in = in;
+    }
+
+    /**
+     * Convenience method for instantiating factory to create instances of
+     * this {@link DataReader}.
+     */
+    public static Factory factory() {
+        return new Factory();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            _closed = true;
+            _in.close();
+        }
+    }
+
+    @Override
+    public int estimateSizeInBytes(NgramRecord item)
+    {
+        // record object with its fields, plus key array (header and storage
+        // rounded up to 4-byte alignment)
+        int bytes = item.getKey().length;
+        bytes = ((bytes + 3) >> 2) << 2;
+        return 40 + 16 + bytes;
+    }
+
+    @Override
+    public NgramRecord readNext() throws IOException
+    {
+        if (_closed) {
+            return null;
+        }
+        if (_inputPtr >= _inputEnd) {
+            if (!_loadMore(0)) {
+                close();
+                return null;
+            }
+        }
+        int keyLength = _readVInt();
+        _ensure(keyLength);
+        byte[] key = new byte[keyLength];
+        System.arraycopy(_inputBuffer, _inputPtr, key, 0, keyLength);
+        _inputPtr += keyLength;
+        int freq = _readVInt();
+        _ensure(8);
+        final byte[] buf = _inputBuffer;
+        int ptr = _inputPtr;
+        long bits = 0L;
+        for (int i = 0; i < 8; ++i) {
+            bits = (bits << 8) | (buf[ptr++] & 0xFF);
+        }
+        _inputPtr = ptr;
+        return new NgramRecord(key, freq, Double.longBitsToDouble(bits));
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected int _readVInt() throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            _ensure(1);
+            int b = _inputBuffer[_inputPtr++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt record: variable-length int too long");
+    }
+
+    /**
+     * Makes sure that at least given number of bytes is available in the buffer
+     */
+    protected void _ensure(int needed) throws IOException
+    {
+        if (_inputEnd - _inputPtr >= needed) {
+            return;
+        }
+        if (!_loadMore(needed)) {
+            throw new EOFException("Unexpected end of input in the middle of a record");
+        }
+    }
+
+    /**
+     * Loads more input, keeping unread bytes, until at least given number of bytes is available
+     * (or at least one byte if <code>needed</code> is 0).
+     */
+    protected boolean _loadMore(int needed) throws IOException
+    {
+        final int remaining = _inputEnd - _inputPtr;
+        if (needed > _inputBuffer.length) {
+            byte[] buf = new byte[needed];
+            System.arraycopy(_inputBuffer, _inputPtr, buf, 0, remaining);
+            _inputBuffer = buf;
+        } else if (remaining > 0) {
+            System.arraycopy(_inputBuffer, _inputPtr, _inputBuffer, 0, remaining);
+        }
+        _inputPtr = 0;
+        _inputEnd = remaining;
+        final int min = Math.max(needed, 1);
+        while (_inputEnd < min) {
+            int count = _in.read(_inputBuffer, _inputEnd, _inputBuffer.length - _inputEnd);
+            if (count < 0) {
+                return false;
+            }
+            _inputEnd += count;
+        }
+        return true;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    public static class Factory
+        extends DataReaderFactory<NgramRecord>
+    {
+        @Override
+        public DataReader<NgramRecord> constructReader(InputStream in) {
+            return new NgramRecordReader(in);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package dict.build;
+
+import com.fasterxml.sort.SortConfig;
+import com.fasterxml.sort.Sorter;
+
+/**
+ * {@link Sorter} implementation that operates on binary {@link NgramRecord} files,
+ * ordering records by word.
+ */
+public class NgramRecordSorter extends Sorter<NgramRecord>
+{
+    public NgramRecordSorter() {
+        this(new SortConfig());
+    }
+
+    public NgramRecordSorter(SortConfig config)
+    {
+        super(config,
+                NgramRecordReader.factory(), NgramRecordWriter.factory(),
+                new NgramRecordComparator());
+    }
+}
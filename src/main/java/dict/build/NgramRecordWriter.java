@@ -0,0 +1,118 @@
+package dict.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.DataWriterFactory;
+
+/**
+ * Writer for the binary format of the freq/entropy stage files. Each
+ * {@link NgramRecord} is written as:
+ *<ul>
+ * <li>length of the UTF-8 key, as variable-length int (7 bits per byte)</li>
+ * <li>UTF-8 key</li>
+ * <li>frequency, as variable-length int</li>
+ * <li>entropy, as 8-byte big-endian double</li>
+ *</ul>
+ */
+public class NgramRecordWriter
+    extends DataWriter<NgramRecord>
+{
+    protected final OutputStream _out;
+
+    protected boolean _closed = false;
+
+    protected final byte[] _outputBuffer = new byte[16000];
+    protected int _outputTail = 0;
+
+    public NgramRecordWriter(OutputStream out)
+    {
+        _out = out;
+    }
+
+    /**
+     * Convenience method for instantiating factory to create instances of
+     * this {@link DataWriter}.
+     */
+    public static Factory factory() {
+        return new Factory();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            _closed = true;
+            _flushBuffer();
+            _out.close();
+        }
+    }
+
+    @Override
+    public void writeEntry(NgramRecord item) throws IOException
+    {
+        if (_closed) {
+            throw new IOException("Can not write using closed DataWriter");
+        }
+        final byte[] key = item.getKey();
+        // two vints take at most 10 bytes, double 8
+        if (_outputTail + key.length + 18 > _outputBuffer.length) {
+            _flushBuffer();
+        }
+        _writeVInt(key.length);
+        if (key.length > _outputBuffer.length - 18) {
+            _flushBuffer();
+            _out.write(key);
+        } else {
+            System.arraycopy(key, 0, _outputBuffer, _outputTail, key.length);
+            _outputTail += key.length;
+        }
+        _writeVInt(item.getFreq());
+        long bits = Double.doubleToLongBits(item.getEntropy());
+        final byte[] buf = _outputBuffer;
+        int ptr = _outputTail;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[ptr++] = (byte) (bits >>> shift);
+        }
+        _outputTail = ptr;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _writeVInt(int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            _outputBuffer[_outputTail++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _outputBuffer[_outputTail++] = (byte) value;
+    }
+
+    protected void _flushBuffer() throws IOException
+    {
+        if (_outputTail > 0) {
+            _out.write(_outputBuffer, 0, _outputTail);
+            _outputTail = 0;
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    public static class Factory
+        extends DataWriterFactory<NgramRecord>
+    {
+        @Override
+        public DataWriter<NgramRecord> constructWriter(OutputStream out) {
+            return new NgramRecordWriter(out);
+        }
+    }
+}
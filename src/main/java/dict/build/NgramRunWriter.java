@@ -0,0 +1,113 @@
+package dict.build;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.SortConfig;
+import com.fasterxml.sort.std.ByteArrayComparator;
+import com.fasterxml.sort.std.FrontCodedLineWriter;
+import com.fasterxml.sort.std.LineArena;
+
+/**
+ * {@link DataWriter} that buffers n-gram lines in memory and writes them out
+ * as sorted runs (in the format of {@link com.fasterxml.sort.std.FrontCodedLineSorter}
+ * temporary files) whenever the buffer gets full. Runs can then be merged
+ * using {@link com.fasterxml.sort.IteratingSorter#mergePresorted}. Lines are buffered
+ * in a {@link LineArena} if sort configuration asks for arena pre-sorting.
+ */
+public class NgramRunWriter extends DataWriter<byte[]>
+{
+    /**
+     * Reference in buffer plus array header, as estimated by {@link com.fasterxml.sort.std.RawTextLineReader}
+     */
+    private final static int ENTRY_OVERHEAD = 8 + 16;
+
+    private final SortConfig _config;
+
+    private final long _maxMemory;
+
+    private final ArrayList<byte[]> _items = new ArrayList<byte[]>();
+
+    /**
+     * Buffer used instead of {@link #_items}, if any
+     */
+    private final LineArena _arena;
+
+    private long _memory;
+
+    private final List<File> _runs = new ArrayList<File>();
+
+    /**
+     * @param config Sort configuration; used for temporary files
+     * @param maxMemory Memory to use for buffering lines before writing a run
+     */
+    public NgramRunWriter(SortConfig config, long maxMemory)
+    {
+        _config = config;
+        _maxMemory = maxMemory;
+        _arena = config.isArenaPresort() ? new LineArena(maxMemory) : null;
+    }
+
+    @Override
+    public void writeEntry(byte[] item) throws IOException
+    {
+        if (_arena != null) {
+            if (!_arena.add(item)) {
+                _writeRun();
+                _arena.add(item);
+            }
+            return;
+        }
+        _items.add(item);
+        _memory += ENTRY_OVERHEAD + (((item.length + 3) >> 2) << 2);
+        if (_memory >= _maxMemory) {
+            _writeRun();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_items.isEmpty() || (_arena != null && _arena.size() > 0)) {
+            _writeRun();
+        }
+        _items.trimToSize();
+        if (_arena != null) {
+            _arena.release();
+        }
+    }
+
+    /**
+     * @return Sorted runs written so far
+     */
+    public List<File> runs() {
+        return _runs;
+    }
+
+    private void _writeRun() throws IOException
+    {
+        File run = _config.getTempFileProvider().provide();
+        try (DataWriter<byte[]> writer = FrontCodedLineWriter.factory().constructWriter(new FileOutputStream(run))) {
+            if (_arena != null) {
+                _arena.sort();
+                _arena.writeTo(writer);
+            } else {
+                Collections.sort(_items, new ByteArrayComparator());
+                for (byte[] item : _items) {
+                    writer.writeEntry(item);
+                }
+            }
+        }
+        _runs.add(run);
+        if (_arena != null) {
+            _arena.clear();
+        }
+        _items.clear();
+        _memory = 0;
+    }
+}
@@ -0,0 +1,363 @@
+package dict.build;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.fasterxml.sort.DataWriter;
+
+/**
+ * {@link SentenceHandler} that counts every word of up to <code>maxLen - 1</code>
+ * characters together with its right (or left) neighbor character in a
+ * {@link PackedNgramTable}. It produces the same freq/entropy file as the
+ * external sort in {@link FastBuilder} without writing the n-grams anywhere.
+ *<p>
+ * Keys have <code>maxLen</code> slots of {@link CharAlphabet#bits()} bits each:
+ * word characters first (padded with {@link CharAlphabet#PAD}), then the
+ * neighbor in the last slot. Since ids follow the character order, sorting
+ * keys puts words in the same order as sorting text lines would, with
+ * neighbors of a word right next to each other.
+ *<p>
+ * If constructed with a {@link CountMinSketch}, memory is bounded: every key
+ * is counted in the sketch too, and whenever the table gets full, the rarest
+ * half of keys is dropped from it; after that, keys only get (back) into the
+ * table once their estimate is high enough, and their counts are approximate.
+ * Words themselves are counted as keys too (with {@link CharAlphabet#PAD} as
+ * neighbor), so that their frequency includes neighbors that were dropped;
+ * in entropy, dropped neighbors are taken to have occurred once each. Number of distinct words, which is no
+ * longer the number of words written, is estimated with a {@link HyperLogLog}.
+ */
+public class PackedNgramCounter implements SentenceHandler
+{
+    private final CharAlphabet _alphabet;
+
+    private final int _maxLen;
+
+    private final int _bits;
+
+    /**
+     * Whether neighbor to count is the one preceding the word (instead of following)
+     */
+    private final boolean _leftNeighbors;
+
+    private final PackedNgramTable _table;
+
+    /**
+     * Counter that keys are moved to when {@link #_table} gets full, if this
+     * is a partial counter of a single worker thread; null otherwise.
+     */
+    private final PackedNgramCounter _target;
+
+    /**
+     * Sketch for approximate counting; null when counting exactly
+     */
+    private final CountMinSketch _sketch;
+
+    /**
+     * Distinct words, when counting approximately
+     */
+    private final HyperLogLog _distinctWords;
+
+    /**
+     * Estimate a key needs to be added to the table, when counting approximately;
+     * 1 as long as no keys have been dropped from the table
+     */
+    private int _minEstimate = 1;
+
+    private int[] _ids = new int[256];
+
+    public PackedNgramCounter(CharAlphabet alphabet, int maxLen, boolean leftNeighbors, long maxMemory)
+        throws PackedNgramTable.TableFullException
+    {
+        this(alphabet, maxLen, leftNeighbors, maxMemory, null);
+    }
+
+    /**
+     * @param sketch Sketch to count approximately with, in addition to
+     *   <code>maxMemory</code> for the table; null to count exactly
+     */
+    public PackedNgramCounter(CharAlphabet alphabet, int maxLen, boolean leftNeighbors, long maxMemory,
+            CountMinSketch sketch)
+        throws PackedNgramTable.TableFullException
+    {
+        if (!fits(alphabet, maxLen)) {
+            throw new IllegalArgumentException("Can not pack " + maxLen + " characters of "
+                    + alphabet.bits() + " bits each");
+        }
+        _alphabet = alphabet;
+        _maxLen = maxLen;
+        _bits = alphabet.bits();
+        _leftNeighbors = leftNeighbors;
+        _table = new PackedNgramTable(maxLen * _bits > 64, maxMemory);
+        _target = null;
+        _sketch = sketch;
+        _distinctWords = (sketch == null) ? null : new HyperLogLog();
+    }
+
+    /**
+     * Constructor for a partial counter used by one worker thread: whenever its own
+     * table fills up (and when {@link #flush} is called), counts are added to
+     * <code>target</code>, so target is the only counter that must hold all keys.
+     */
+    public PackedNgramCounter(PackedNgramCounter target, long maxMemory)
+        throws PackedNgramTable.TableFullException
+    {
+        _alphabet = target._alphabet;
+        _maxLen = target._maxLen;
+        _bits = target._bits;
+        _leftNeighbors = target._leftNeighbors;
+        _table = new PackedNgramTable(_maxLen * _bits > 64, maxMemory);
+        _target = target;
+        _sketch = null;
+        _distinctWords = null;
+    }
+
+    /**
+     * @return True if n-grams of <code>maxLen</code> characters of given alphabet fit in a key
+     */
+    public static boolean fits(CharAlphabet alphabet, int maxLen) {
+        return maxLen >= 2 && maxLen * alphabet.bits() <= 128;
+    }
+
+    /*
+    /**********************************************************************
+    /* SentenceHandler implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public void sentence(char[] chars, int off, int len) throws IOException
+    {
+        if (_ids.length < len) {
+            _ids = new int[len];
+        }
+        final int[] ids = _ids;
+        for (int i = 0; i < len; ++i) {
+            ids[i] = _alphabet.id(chars[off + i]);
+        }
+        final int wordSlots = _maxLen - 1;
+        for (int start = 0; start < len; ++start) {
+            final int left = (start > 0) ? ids[start - 1] : CharAlphabet.BOUNDARY;
+            long hi = 0L, lo = 0L;
+            for (int i = 0, end = Math.min(wordSlots, len - start); i < end; ++i) {
+                int shift = (_maxLen - 1 - i) * _bits;
+                int id = ids[start + i];
+                if (shift >= 64) {
+                    hi |= ((long) id) << (shift - 64);
+                } else {
+                    lo |= ((long) id) << shift;
+                    if (shift + _bits > 64) {
+                        hi |= ((long) id) >>> (64 - shift);
+                    }
+                }
+                int neighbor;
+                if (_leftNeighbors) {
+                    neighbor = left;
+                } else {
+                    neighbor = (start + i + 1 < len) ? ids[start + i + 1] : CharAlphabet.BOUNDARY;
+                }
+                // neighbor slot is the lowest one
+                _add(hi, lo | neighbor);
+            }
+        }
+    }
+
+    /**
+     * Moves all counts of a partial counter to its target counter. Safe to call
+     * from several worker threads at the same time.
+     */
+    public void flush() throws PackedNgramTable.TableFullException
+    {
+        if (_target == null) {
+            throw new IllegalStateException("Not a partial counter");
+        }
+        synchronized (_target) {
+            if (_target._sketch == null) {
+                _target._table.addAll(_table);
+            } else {
+                final PackedNgramTable table = _table;
+                for (int slot = 0, end = table.capacity(); slot < end; ++slot) {
+                    if (table.count(slot) != 0) {
+                        _target._addEstimated(table.hi(slot), table.lo(slot), table.count(slot));
+                    }
+                }
+            }
+        }
+        _table.clear();
+    }
+
+    private void _add(long hi, long lo) throws PackedNgramTable.TableFullException
+    {
+        if (_sketch != null) {
+            _addEstimated(hi, lo, 1);
+            return;
+        }
+        try {
+            _table.add(hi, lo, 1);
+        } catch (PackedNgramTable.TableFullException e) {
+            if (_target == null) {
+                throw e;
+            }
+            flush();
+            _table.add(hi, lo, 1);
+        }
+    }
+
+    private void _addEstimated(long hi, long lo, int delta) throws PackedNgramTable.TableFullException
+    {
+        // word itself, with PAD as neighbor: neighbor slot of other keys is never PAD
+        final long word = lo & ~((1L << _bits) - 1);
+        _distinctWords.add(hi, word);
+        _addKeyEstimated(hi, word, delta);
+        _addKeyEstimated(hi, lo, delta);
+    }
+
+    private void _addKeyEstimated(long hi, long lo, int delta) throws PackedNgramTable.TableFullException
+    {
+        final int estimate = _sketch.add(hi, lo, delta);
+        if (_table.get(hi, lo) != 0) {
+            _table.add(hi, lo, delta);
+            return;
+        }
+        if (estimate < _minEstimate) {
+            return;
+        }
+        try {
+            _table.set(hi, lo, _initialCount(delta, estimate));
+        } catch (PackedNgramTable.TableFullException e) {
+            _minEstimate = _table.evictSmallest();
+            if (estimate >= _minEstimate) {
+                _table.set(hi, lo, _initialCount(delta, estimate));
+            }
+        }
+    }
+
+    /**
+     * Count for a key that is added to the table, when counting approximately
+     */
+    private int _initialCount(int delta, int estimate)
+    {
+        // until keys are dropped, a key not in the table has not been seen before
+        if (_minEstimate == 1) {
+            return delta;
+        }
+        // a dropped key had less than _minEstimate occurrences before; not counting those
+        // keeps rare keys, whose estimates are mostly collisions, from looking frequent
+        return Math.max(delta, estimate - (_minEstimate - 1));
+    }
+
+    /**
+     * @return Sketch used for approximate counting, or null if counting exactly
+     */
+    public CountMinSketch getSketch() {
+        return _sketch;
+    }
+
+    /**
+     * @return Estimated number of distinct words when counting approximately,
+     *   or -1 if counting exactly
+     */
+    public long estimateDistinctWords() {
+        return (_distinctWords == null) ? -1L : _distinctWords.estimate();
+    }
+
+    /**
+     * @return Memory used for approximate counting besides the table: sketch and
+     *   distinct word estimator; 0 if counting exactly
+     */
+    public long estimatorBytes() {
+        return (_sketch == null) ? 0L : _sketch.bytes() + _distinctWords.bytes();
+    }
+
+    /*
+    /**********************************************************************
+    /* Output
+    /**********************************************************************
+     */
+
+    /**
+     * Writes counted words in sorted order as {@link NgramRecord}s: with frequency
+     * and entropy for right neighbors, and with just entropy for left neighbors,
+     * same as {@link FastBuilder} produces using external sort.
+     *
+     * @param minFreq Words occurring less often are left out
+     *
+     * @return Number of distinct words in the table, including ones left out
+     */
+    public long writeFreqFile(File out, int minFreq) throws IOException
+    {
+        final PackedNgramTable table = _table;
+        final long neighborMask = (1L << _bits) - 1;
+        final int size = table.size();
+        table.sortEntries();
+
+        StringBuilder builder = new StringBuilder();
+        long words = 0L;
+        try (DataWriter<NgramRecord> writer = NgramRecordWriter.factory().constructWriter(new FileOutputStream(out))) {
+            int start = 0;
+            while (start < size) {
+                ++words;
+                long hi = table.hi(start);
+                long word = table.lo(start) & ~neighborMask;
+                // key of the word itself, if counting approximately, sorts before its neighbors
+                int wordCount = -1;
+                if (_sketch != null && table.lo(start) == word) {
+                    wordCount = table.count(start);
+                    ++start;
+                }
+                int end = start;
+                int freq = 0;
+                while (end < size && table.hi(end) == hi && (table.lo(end) & ~neighborMask) == word) {
+                    freq += table.count(end);
+                    ++end;
+                }
+                // neighbors dropped from the table: each counted as seen once
+                int dropped = 0;
+                if (_sketch != null && _minEstimate > 1) {
+                    if (wordCount < 0) {
+                        wordCount = _sketch.estimate(hi, word);
+                    }
+                    dropped = Math.max(0, wordCount - freq);
+                    freq += dropped;
+                }
+                if (freq < minFreq) {
+                    start = end;
+                    continue;
+                }
+                // dropped neighbors count once each, so they only add to the total
+                double sum = 0;
+                for (int i = start; i < end; ++i) {
+                    sum += ScoringKernel.xLog2X(table.count(i));
+                }
+                final double re = ScoringKernel.entropy(sum, freq);
+                builder.setLength(0);
+                _appendWord(builder, hi, word);
+                writer.writeEntry(new NgramRecord(builder.toString(), _leftNeighbors ? 0 : freq, re));
+                start = end;
+            }
+        }
+        return words;
+    }
+
+    private void _appendWord(StringBuilder builder, long hi, long lo)
+    {
+        final int mask = (1 << _bits) - 1;
+        for (int i = 0; i < _maxLen - 1; ++i) {
+            int shift = (_maxLen - 1 - i) * _bits;
+            long value;
+            if (shift >= 64) {
+                value = hi >>> (shift - 64);
+            } else {
+                value = lo >>> shift;
+                if (shift + _bits > 64) {
+                    value |= hi << (64 - shift);
+                }
+            }
+            int id = (int) value & mask;
+            if (id == CharAlphabet.PAD) {
+                break;
+            }
+            builder.append(_alphabet.charAt(id));
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package dict.build;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table that counts packed n-gram keys, using only
+ * primitive arrays. A key is a 128-bit unsigned value given as two longs;
+ * tables created for narrow keys (see {@link PackedNgramCounter}) store just
+ * the low long and expect the high one to always be 0.
+ *<p>
+ * The table refuses to grow past its memory budget by throwing
+ * {@link TableFullException}, so that caller can switch to a strategy
+ * that does not need to keep all keys in memory.
+ */
+public class PackedNgramTable
+{
+    private final static int INITIAL_CAPACITY = 1 << 16;
+
+    /**
+     * Table is grown when it gets this full (in percent)
+     */
+    private final static int MAX_FILL = 60;
+
+    /**
+     * Number of longs per key: 1 for narrow, 2 for wide keys
+     */
+    private final int _stride;
+
+    private final long _maxMemory;
+
+    private long[] _keys;
+
+    /**
+     * Counts for each slot; 0 means slot is empty
+     */
+    private int[] _counts;
+
+    private int _size;
+
+    private int _growAt;
+
+    public PackedNgramTable(boolean wide, long maxMemory) throws TableFullException
+    {
+        _stride = wide ? 2 : 1;
+        _maxMemory = maxMemory;
+        _allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return Memory needed by a table with given number of slots
+     */
+    public long bytesFor(int capacity) {
+        return (8L * _stride + 4L) * capacity;
+    }
+
+    /*
+    /**********************************************************************
+    /* Counting
+    /**********************************************************************
+     */
+
+    public void add(long hi, long lo, int delta) throws TableFullException
+    {
+        final int mask = _counts.length - 1;
+        int slot = _hash(hi, lo) & mask;
+        while (true) {
+            if (_counts[slot] == 0) {
+                break;
+            }
+            if (_matches(slot, hi, lo)) {
+                _counts[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (_size >= _growAt) {
+            _grow();
+            add(hi, lo, delta);
+            return;
+        }
+        _set(slot, hi, lo, delta);
+        ++_size;
+    }
+
+    /**
+     * Adds counts of all keys of given table (which must have keys of the same width)
+     * to this table.
+     */
+    public void addAll(PackedNgramTable other) throws TableFullException
+    {
+        final int[] counts = other._counts;
+        for (int slot = 0, len = counts.length; slot < len; ++slot) {
+            if (counts[slot] != 0) {
+                add(other.hi(slot), other.lo(slot), counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Sets count of given key, adding the key if it is not in the table yet.
+     *
+     * @param count New count; must be positive
+     */
+    public void set(long hi, long lo, int count) throws TableFullException
+    {
+        final int mask = _counts.length - 1;
+        int slot = _hash(hi, lo) & mask;
+        while (_counts[slot] != 0) {
+            if (_matches(slot, hi, lo)) {
+                _counts[slot] = count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (_size >= _growAt) {
+            _grow();
+            set(hi, lo, count);
+            return;
+        }
+        _set(slot, hi, lo, count);
+        ++_size;
+    }
+
+    /**
+     * Removes keys with the smallest counts, without needing any more memory.
+     * At least one key is removed and at least one kept:
+     *<ul>
+     * <li>normally, keys with counts below a threshold are removed, so that at
+     *   most half of the keys are kept;</li>
+     * <li>if more than half of the keys have the highest count, just those are
+     *   kept, and the table stays more than half full;</li>
+     * <li>if all keys have the same count, no count tells them apart, and every
+     *   other key (in slot order) is removed, keeping about half.</li>
+     *</ul>
+     *
+     * @return Count that every removed key had less of; kept keys have at least
+     *    this count, except when all keys had the same count (then one less)
+     */
+    public int evictSmallest()
+    {
+        if (_growAt < 0) {
+            throw new IllegalStateException("Can not evict keys after sortEntries()");
+        }
+        final int[] counts = _counts;
+        // no memory to sort a copy of the counts, so search for the threshold by value
+        int lowest = Integer.MAX_VALUE, highest = 0;
+        for (int count : counts) {
+            if (count != 0) {
+                lowest = Math.min(lowest, count);
+                highest = Math.max(highest, count);
+            }
+        }
+        if (highest == lowest) {
+            boolean remove = false;
+            for (int slot = 0; slot < counts.length; ++slot) {
+                if (counts[slot] != 0) {
+                    if (remove) {
+                        counts[slot] = 0;
+                        --_size;
+                    }
+                    remove = !remove;
+                }
+            }
+            _rehash();
+            return lowest + 1;
+        }
+        // binary search for the smallest count that keeps at most half; keys with
+        // the highest count are always kept, even if they are more than half
+        int lo = lowest + 1, hi = highest;
+        while (lo < hi) {
+            int mid = lo + ((hi - lo) >>> 1);
+            int kept = 0;
+            for (int count : counts) {
+                if (count >= mid) {
+                    ++kept;
+                }
+            }
+            if (kept <= (_size >> 1)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        final int threshold = lo;
+        for (int slot = 0; slot < counts.length; ++slot) {
+            if (counts[slot] != 0 && counts[slot] < threshold) {
+                counts[slot] = 0;
+                --_size;
+            }
+        }
+        _rehash();
+        return threshold;
+    }
+
+    /**
+     * Adds keys of given table (which must have keys of the same width) that have
+     * at least given count to this table.
+     */
+    public void addAll(PackedNgramTable other, int minCount) throws TableFullException
+    {
+        final int[] counts = other._counts;
+        for (int slot = 0, len = counts.length; slot < len; ++slot) {
+            if (counts[slot] >= minCount && counts[slot] != 0) {
+                add(other.hi(slot), other.lo(slot), counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return Count of given key, or 0 if the key is not in the table
+     */
+    public int get(long hi, long lo)
+    {
+        final int mask = _counts.length - 1;
+        int slot = _hash(hi, lo) & mask;
+        while (_counts[slot] != 0) {
+            if (_matches(slot, hi, lo)) {
+                return _counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Removes all keys, keeping current capacity
+     */
+    public void clear()
+    {
+        if (_growAt < 0) {
+            throw new IllegalStateException("Can not clear table after sortEntries()");
+        }
+        Arrays.fill(_counts, 0);
+        _size = 0;
+    }
+
+    /**
+     * Number of slots in the table; before {@link #sortEntries()}, {@link #hi}, {@link #lo}
+     * and {@link #count} can be called with any slot, and count of empty slots is 0
+     */
+    public int capacity() {
+        return _counts.length;
+    }
+
+    /**
+     * Number of distinct keys in the table
+     */
+    public int size() {
+        return _size;
+    }
+
+    /*
+    /**********************************************************************
+    /* Access to sorted entries
+    /**********************************************************************
+     */
+
+    /**
+     * Method that moves all entries to the beginning of the table and sorts
+     * them by key (as unsigned value). After this call entries can be accessed
+     * using {@link #hi}, {@link #lo} and {@link #count} with index from 0 to
+     * {@link #size()}, but no more keys may be added.
+     */
+    public void sortEntries()
+    {
+        int end = 0;
+        for (int slot = 0, len = _counts.length; slot < len; ++slot) {
+            if (_counts[slot] != 0) {
+                if (slot != end) {
+                    _set(end, hi(slot), lo(slot), _counts[slot]);
+                    _counts[slot] = 0;
+                }
+                ++end;
+            }
+        }
+        _growAt = -1;
+        _quickSort(0, end - 1);
+    }
+
+    public long hi(int index) {
+        return (_stride == 1) ? 0L : _keys[index << 1];
+    }
+
+    public long lo(int index) {
+        return (_stride == 1) ? _keys[index] : _keys[(index << 1) + 1];
+    }
+
+    public int count(int index) {
+        return _counts[index];
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private void _allocate(int capacity) throws TableFullException
+    {
+        if (bytesFor(capacity) > _maxMemory) {
+            throw new TableFullException(_maxMemory);
+        }
+        _keys = new long[capacity * _stride];
+        _counts = new int[capacity];
+        _growAt = (int) ((long) capacity * MAX_FILL / 100);
+    }
+
+    private void _grow() throws TableFullException
+    {
+        if (_growAt < 0) {
+            throw new IllegalStateException("Can not add keys after sortEntries()");
+        }
+        int oldCapacity = _counts.length;
+        // both the old and new arrays are needed while rehashing
+        if (oldCapacity >= (1 << 30) || bytesFor(oldCapacity) + bytesFor(oldCapacity << 1) > _maxMemory) {
+            throw new TableFullException(_maxMemory);
+        }
+        long[] oldKeys = _keys;
+        int[] oldCounts = _counts;
+        _allocate(oldCapacity << 1);
+        final int mask = _counts.length - 1;
+        for (int i = 0; i < oldCapacity; ++i) {
+            if (oldCounts[i] == 0) {
+                continue;
+            }
+            long hi = (_stride == 1) ? 0L : oldKeys[i << 1];
+            long lo = (_stride == 1) ? oldKeys[i] : oldKeys[(i << 1) + 1];
+            int slot = _hash(hi, lo) & mask;
+            while (_counts[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            _set(slot, hi, lo, oldCounts[i]);
+        }
+    }
+
+    /**
+     * Moves keys back to where lookups find them after some were removed. Starting
+     * right after an empty slot, clusters are processed in probe order, and each key
+     * moves to the first empty slot from its hash on, which is never past its old one.
+     */
+    private void _rehash()
+    {
+        final int[] counts = _counts;
+        final int mask = counts.length - 1;
+        int start = 0;
+        while (counts[start] != 0) {
+            ++start;
+        }
+        for (int i = 1; i <= mask; ++i) {
+            int slot = (start + i) & mask;
+            if (counts[slot] == 0) {
+                continue;
+            }
+            long hi = hi(slot), lo = lo(slot);
+            int count = counts[slot];
+            counts[slot] = 0;
+            int target = _hash(hi, lo) & mask;
+            while (counts[target] != 0) {
+                target = (target + 1) & mask;
+            }
+            _set(target, hi, lo, count);
+        }
+    }
+
+    private boolean _matches(int slot, long hi, long lo)
+    {
+        if (_stride == 1) {
+            return _keys[slot] == lo;
+        }
+        return _keys[slot << 1] == hi && _keys[(slot << 1) + 1] == lo;
+    }
+
+    private void _set(int slot, long hi, long lo, int count)
+    {
+        if (_stride == 1) {
+            _keys[slot] = lo;
+        } else {
+            _keys[slot << 1] = hi;
+            _keys[(slot << 1) + 1] = lo;
+        }
+        _counts[slot] = count;
+    }
+
+    private static int _hash(long hi, long lo)
+    {
+        long h = lo * 0x9E3779B97F4A7C15L + hi;
+        h ^= (h >>> 32);
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    private int _compare(int i, int j)
+    {
+        int diff = Long.compareUnsigned(hi(i), hi(j));
+        if (diff != 0) {
+            return diff;
+        }
+        return Long.compareUnsigned(lo(i), lo(j));
+    }
+
+    private void _swap(int i, int j)
+    {
+        long hi = hi(i), lo = lo(i);
+        int count = _counts[i];
+        _set(i, hi(j), lo(j), _counts[j]);
+        _set(j, hi, lo, count);
+    }
+
+    private void _quickSort(int left, int right)
+    {
+        while (right - left > 16) {
+            // median of three as pivot, moved to 'right'
+            int mid = (left + right) >>> 1;
+            if (_compare(mid, left) < 0) {
+                _swap(mid, left);
+            }
+            if (_compare(right, left) < 0) {
+                _swap(right, left);
+            }
+            if (_compare(mid, right) < 0) {
+                _swap(mid, right);
+            }
+            int store = left;
+            for (int i = left; i < right; ++i) {
+                if (_compare(i, right) < 0) {
+                    _swap(i, store++);
+                }
+            }
+            _swap(store, right);
+            // recurse into smaller half, loop over larger one
+            if (store - left < right - store) {
+                _quickSort(left, store - 1);
+                left = store + 1;
+            } else {
+                _quickSort(store + 1, right);
+                right = store - 1;
+            }
+        }
+        for (int i = left + 1; i <= right; ++i) {
+            for (int j = i; j > left && _compare(j, j - 1) < 0; --j) {
+                _swap(j, j - 1);
+            }
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Exception thrown when the table would need more memory than it is allowed to use.
+     */
+    public static class TableFullException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public TableFullException(long maxMemory) {
+            super("n-gram table would exceed memory budget of " + maxMemory + " bytes");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package dict.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Tokenizes a UTF-8 file using several threads: file is split into byte ranges
+ * that end at line boundaries, and each range is memory-mapped, decoded and
+ * tokenized on its own, on a {@link ForkJoinPool}. Every range gets its own
+ * {@link SentenceHandler} from the given {@link RangeHandlerFactory}, so
+ * handlers need not be thread-safe. Ranges are decoded a buffer at a time,
+ * so heap used per thread does not grow with range size.
+ */
+public class ParallelIngester
+{
+    /**
+     * Ranges are kept well under the 2 gig limit of a single mapping
+     */
+    private final static long MAX_RANGE_SIZE = 256L * 1024 * 1024;
+
+    private final static long MIN_RANGE_SIZE = 1024L * 1024;
+
+    /**
+     * Number of ranges per thread, to even out differences in work per range
+     */
+    private final static int RANGES_PER_THREAD = 4;
+
+    private final File _rawFile;
+
+    private final int _threads;
+
+    public ParallelIngester(File rawFile, int threads)
+    {
+        _rawFile = rawFile;
+        _threads = threads;
+    }
+
+    /**
+     * Tokenizes the whole file, passing sentences of each range to a handler
+     * created for that range. Method returns once all ranges are done.
+     */
+    public <H extends SentenceHandler> void ingest(final RangeHandlerFactory<H> factory) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(_rawFile.toPath(), StandardOpenOption.READ)) {
+            List<long[]> ranges = _splitRanges(channel);
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(ranges.size());
+            ForkJoinPool pool = new ForkJoinPool(_threads);
+            try {
+                for (final long[] range : ranges) {
+                    tasks.add(pool.submit(new RecursiveAction() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected void compute() {
+                            try {
+                                H handler = factory.create();
+                                _tokenize(channel, range[0], range[1], handler);
+                                factory.done(handler);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }));
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while ingesting " + _rawFile, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Splits file into ranges of roughly equal size, each one ending right after a linefeed
+     * (or at end of file).
+     */
+    private List<long[]> _splitRanges(FileChannel channel) throws IOException
+    {
+        final long size = channel.size();
+        long rangeSize = size / ((long) _threads * RANGES_PER_THREAD) + 1;
+        rangeSize = Math.max(MIN_RANGE_SIZE, Math.min(MAX_RANGE_SIZE, rangeSize));
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = start + rangeSize;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = _nextLineStart(channel, end, probe);
+            }
+            ranges.add(new long[] { start, end });
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static long _nextLineStart(FileChannel channel, long pos, ByteBuffer probe) throws IOException
+    {
+        while (true) {
+            probe.clear();
+            int count = channel.read(probe, pos);
+            if (count <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < count; ++i) {
+                if (probe.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += count;
+        }
+    }
+
+    private static void _tokenize(FileChannel channel, long start, long end, SentenceHandler handler)
+        throws IOException
+    {
+        MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        // same replacement of malformed input as readers of the single-threaded path
+        CharsetDecoder decoder = Charsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        new SentenceTokenizer().tokenize(bytes, decoder, handler);
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Factory for handlers of single ranges. Both methods are called from worker threads.
+     */
+    public interface RangeHandlerFactory<H extends SentenceHandler>
+    {
+        public H create() throws IOException;
+
+        /**
+         * Called once all sentences of the range have been passed to the handler.
+         */
+        public void done(H handler) throws IOException;
+    }
+}
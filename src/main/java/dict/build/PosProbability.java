@@ -33,43 +33,40 @@ public class PosProbability {
 				BufferedWriter pw = Files.newWriter(ppFile, Charsets.UTF_8);
 				) {
 			String line = null;
-			Map<String, CounterMap> pp = Maps.newHashMap();
+			Map<String, CharCounter> pp = Maps.newHashMap();
 			while (null != (line = br.readLine())) {
 				String[] seg = line.split("\t");
 //				int freq = Integer.parseInt(seg[2]);
 				int freq = 1;
 				for (int i = 0; i < seg[0].length(); ++i) {
-					String label = null;
+					char label;
 					
 					if (0 == i) { // 词首
-						label = "S";
+						label = 'S';
 					} else if (seg[0].length() - 1 == i) { // 词尾
-						label = "E";
+						label = 'E';
 					} else { // 词中
-						label = "M";
+						label = 'M';
 					}
 					String key = seg[0].substring(i, i + 1);
-					if (pp.containsKey(key)) {
-						pp.get(key).incrby(label, freq);
-					} else {
-						CounterMap cm = new CounterMap();
-						cm.incrby(label, freq);
-						pp.put(key, cm);
+					CharCounter cc = pp.get(key);
+					if (null == cc) {
+						cc = new CharCounter();
+						pp.put(key, cc);
 					}
+					cc.incrBy(label, freq);
 				}
 			}
-			String[] labels = new String[]{"S", "M", "E"};
+			char[] labels = new char[]{'S', 'M', 'E'};
 			for (String key : pp.keySet()) {
-				int total = 0;
-				for (String l : labels) {
-					total += pp.get(key).get(l);
-				}
+				CharCounter cc = pp.get(key);
+				int total = cc.total();
 				if (0 == total) 
 					continue;
 				StringBuilder bui = new StringBuilder();
 				bui.append(key);
-				for (String l : labels) {
-					bui.append("\t").append(pp.get(key).get(l) * 1.0 / total);
+				for (char l : labels) {
+					bui.append("\t").append(cc.get(l) * 1.0 / total);
 				}
 				bui.append("\n");
 				pw.write(bui.toString());
@@ -0,0 +1,155 @@
+package dict.build;
+
+import java.util.Random;
+
+/**
+ * Compares {@link ScoringKernel} with the per-neighbor logarithm formula, over
+ * neighbor distributions like those of real text: most words have a handful
+ * of neighbors with small counts, while a few (single characters, mostly) have
+ * hundreds, with counts following Zipf's law.
+ *<p>
+ * Run with <code>java -cp ... dict.build.ScoringBenchmark [words] [rounds]</code>;
+ * each round is timed after a few warm-up rounds, and the best time is reported.
+ */
+public class ScoringBenchmark
+{
+    private final static int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args)
+    {
+        final int words = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        final int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+        Random random = new Random(42L);
+        int[][] counts = new int[words][];
+        int[] totals = new int[words];
+        long neighbors = 0;
+        for (int w = 0; w < words; ++w) {
+            counts[w] = _zipfCounts(random, _neighborCount(random));
+            for (int c : counts[w]) {
+                totals[w] += c;
+            }
+            neighbors += counts[w].length;
+        }
+        System.out.printf("%d words, %d neighbors%n", words, neighbors);
+
+        long best = Long.MAX_VALUE;
+        double check = 0;
+        for (int r = 0; r < WARMUP_ROUNDS + rounds; ++r) {
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int w = 0; w < words; ++w) {
+                sum += _legacyEntropy(counts[w], totals[w]);
+            }
+            long time = System.nanoTime() - start;
+            if (r >= WARMUP_ROUNDS) {
+                best = Math.min(best, time);
+            }
+            check = sum;
+        }
+        System.out.printf("entropy, log per neighbor: %.1f ns/word (sum %.6f)%n", best * 1.0 / words, check);
+
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < WARMUP_ROUNDS + rounds; ++r) {
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int w = 0; w < words; ++w) {
+                sum += ScoringKernel.entropy(counts[w], 0, counts[w].length, totals[w]);
+            }
+            long time = System.nanoTime() - start;
+            if (r >= WARMUP_ROUNDS) {
+                best = Math.min(best, time);
+            }
+            check = sum;
+        }
+        System.out.printf("entropy, kernel:           %.1f ns/word (sum %.6f)%n", best * 1.0 / words, check);
+
+        // PMI of 2- to 5-character words, with split frequencies from the same distributions
+        final long total = words;
+        long[][] prefixFreqs = new long[words][];
+        long[][] suffixFreqs = new long[words][];
+        for (int w = 0; w < words; ++w) {
+            int splits = 1 + random.nextInt(4);
+            prefixFreqs[w] = new long[splits];
+            suffixFreqs[w] = new long[splits];
+            for (int i = 0; i < splits; ++i) {
+                prefixFreqs[w][i] = totals[random.nextInt(words)];
+                suffixFreqs[w][i] = totals[random.nextInt(words)];
+            }
+        }
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < WARMUP_ROUNDS + rounds; ++r) {
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int w = 0; w < words; ++w) {
+                sum += _legacyPmi(totals[w], prefixFreqs[w], suffixFreqs[w], total);
+            }
+            long time = System.nanoTime() - start;
+            if (r >= WARMUP_ROUNDS) {
+                best = Math.min(best, time);
+            }
+            check = sum;
+        }
+        System.out.printf("pmi, log of ratio:         %.1f ns/word (sum %.6f)%n", best * 1.0 / words, check);
+
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < WARMUP_ROUNDS + rounds; ++r) {
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int w = 0; w < words; ++w) {
+                sum += ScoringKernel.pmi(totals[w], prefixFreqs[w], suffixFreqs[w], prefixFreqs[w].length, total);
+            }
+            long time = System.nanoTime() - start;
+            if (r >= WARMUP_ROUNDS) {
+                best = Math.min(best, time);
+            }
+            check = sum;
+        }
+        System.out.printf("pmi, kernel:               %.1f ns/word (sum %.6f)%n", best * 1.0 / words, check);
+    }
+
+    /**
+     * @return Number of distinct neighbors of a word: mostly 1 to 8, with a long tail
+     */
+    private static int _neighborCount(Random random)
+    {
+        double x = random.nextDouble();
+        if (x < 0.99) {
+            return 1 + (int) (8 * x * x);
+        }
+        return 9 + random.nextInt(1000);
+    }
+
+    private static int[] _zipfCounts(Random random, int neighbors)
+    {
+        int[] counts = new int[neighbors];
+        int top = 1 + random.nextInt(Math.max(1, 50 * neighbors));
+        for (int i = 0; i < neighbors; ++i) {
+            counts[i] = Math.max(1, top / (i + 1));
+        }
+        return counts;
+    }
+
+    private static double _legacyEntropy(int[] counts, int total)
+    {
+        double entropy = 0;
+        for (int c : counts) {
+            double p = c * 1.0 / total;
+            entropy += -1 * Math.log(p) / Math.log(2) * p;
+        }
+        return entropy;
+    }
+
+    private static double _legacyPmi(long freq, long[] prefixFreqs, long[] suffixFreqs, long total)
+    {
+        long max = -1;
+        for (int i = 0; i < prefixFreqs.length; ++i) {
+            long ff = prefixFreqs[i] * suffixFreqs[i];
+            if (ff > max) {
+                max = ff;
+            }
+        }
+        double pf = (double) freq / max * total;
+        return Math.log(pf) / Math.log(2);
+    }
+}
@@ -0,0 +1,130 @@
+package dict.build;
+
+/**
+ * Entropy and PMI of counts; entropy is computed from a table of <code>c * log2(c)</code>
+ * for small counts instead of a logarithm (and a division) per neighbor.
+ *<p>
+ * For neighbor counts <code>c_i</code> summing to <code>N</code>, entropy is
+ * <code>-&Sigma; (c_i/N) log2(c_i/N) = log2(N) - &Sigma; c_i log2(c_i) / N</code>;
+ * so a single pass summing table entries and one logarithm of the total are
+ * enough. Neighbors counted once contribute nothing to the sum.
+ */
+public final class ScoringKernel
+{
+    /**
+     * Counts below this have <code>c * log2(c)</code> precomputed
+     */
+    public final static int TABLE_SIZE = 1 << 14;
+
+    private final static double INV_LN2 = 1.0 / Math.log(2);
+
+    private final static double[] LOG2 = new double[TABLE_SIZE];
+
+    private final static double[] X_LOG2_X = new double[TABLE_SIZE];
+    static {
+        LOG2[0] = Double.NEGATIVE_INFINITY;
+        for (int c = 1; c < TABLE_SIZE; ++c) {
+            LOG2[c] = Math.log(c) * INV_LN2;
+            X_LOG2_X[c] = c * LOG2[c];
+        }
+    }
+
+    private ScoringKernel() { }
+
+    public static double log2(long x) {
+        return (x < TABLE_SIZE && x >= 0) ? LOG2[(int) x] : Math.log(x) * INV_LN2;
+    }
+
+    public static double log2(double x) {
+        return Math.log(x) * INV_LN2;
+    }
+
+    /**
+     * @return <code>c * log2(c)</code>; 0 for 0
+     */
+    public static double xLog2X(int c) {
+        return (c < TABLE_SIZE) ? X_LOG2_X[c] : c * Math.log(c) * INV_LN2;
+    }
+
+    /*
+    /**********************************************************************
+    /* Entropy
+    /**********************************************************************
+     */
+
+    /**
+     * @return Entropy (in bits) of given counts, which sum to <code>total</code>;
+     *    0 if total is 0
+     */
+    public static double entropy(int[] counts, int off, int len, int total)
+    {
+        double sum = 0;
+        for (int i = off, end = off + len; i < end; ++i) {
+            sum += xLog2X(counts[i]);
+        }
+        return entropy(sum, total);
+    }
+
+    /**
+     * @param xLog2XSum Sum of {@link #xLog2X} over all counts
+     * @param total Sum of all counts; may be more than counts summed, with the
+     *    rest counted once each
+     *
+     * @return Entropy (in bits) of the counts
+     */
+    public static double entropy(double xLog2XSum, int total)
+    {
+        if (total <= 0) {
+            return 0.0;
+        }
+        double entropy = log2(total) - xLog2XSum / total;
+        // rounding may leave a tiny negative for a single neighbor
+        return (entropy > 0.0) ? entropy : 0.0;
+    }
+
+    /*
+    /**********************************************************************
+    /* PMI
+    /**********************************************************************
+     */
+
+    /**
+     * Pointwise mutual information of a word, against its most likely split:
+     * <code>log2(freq * total / (lf * rf))</code>, where <code>lf * rf</code>
+     * is the largest product of frequencies of a prefix and the rest of the word.
+     *
+     * @param prefixFreqs Frequency of each split's prefix
+     * @param suffixFreqs Frequency of each split's suffix, in the same order
+     * @param splits Number of splits; entries with a negative frequency (unknown)
+     *    are skipped
+     *
+     * @return PMI, or NaN if no split has both frequencies
+     */
+    public static double pmi(long freq, long[] prefixFreqs, long[] suffixFreqs, int splits, long total)
+    {
+        long max = -1;
+        for (int i = 0; i < splits; ++i) {
+            long lf = prefixFreqs[i];
+            long rf = suffixFreqs[i];
+            if (lf < 0 || rf < 0) {
+                continue;
+            }
+            long ff = lf * rf;
+            if (ff > max) {
+                max = ff;
+            }
+        }
+        if (max <= 0) {
+            return Double.NaN;
+        }
+        return pmi(freq, max, total);
+    }
+
+    /**
+     * @return <code>log2(freq * total / maxProduct)</code>; a single logarithm
+     *    of the ratio is cheaper than three from the table
+     */
+    public static double pmi(long freq, long maxProduct, long total) {
+        return log2((double) freq / maxProduct * total);
+    }
+}
@@ -0,0 +1,17 @@
+package dict.build;
+
+import java.io.IOException;
+
+/**
+ * Callback that receives the sentences {@link SentenceTokenizer} cuts out of
+ * raw text. Every sentence is a non-empty run of Chinese characters.
+ */
+public interface SentenceHandler
+{
+    /**
+     * @param chars Buffer holding the sentence; only valid during this call
+     * @param off Offset of the first character of the sentence
+     * @param len Number of characters in the sentence
+     */
+    public void sentence(char[] chars, int off, int len) throws IOException;
+}
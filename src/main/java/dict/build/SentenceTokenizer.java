@@ -0,0 +1,201 @@
+package dict.build;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+
+/**
+ * Cuts raw text into sentences: stop words, punctuation and white space
+ * separate sentences, and only sentences made of Chinese characters
+ * are passed on.
+ *<p>
+ * Characters are classified using a table computed once from
+ * {@link FastBuilder#STOPWORDS_COMPILE} and {@link FastBuilder#isChinese}, and
+ * text is scanned in a reusable buffer, so no objects are created per line
+ * or per sentence. Since line feeds are separators too, lines need not be
+ * found at all. Instances are not thread-safe.
+ */
+public class SentenceTokenizer
+{
+    private final static byte CLASS_OTHER = 0;
+
+    private final static byte CLASS_SEPARATOR = 1;
+
+    private final static byte CLASS_CHINESE = 2;
+
+    private final static byte[] CHAR_CLASSES = new byte[Character.MAX_VALUE + 1];
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+            if (FastBuilder.STOPWORDS_COMPILE.matcher(String.valueOf((char) c)).matches()) {
+                CHAR_CLASSES[c] = CLASS_SEPARATOR;
+            } else if (FastBuilder.isChinese((char) c)) {
+                CHAR_CLASSES[c] = CLASS_CHINESE;
+            }
+        }
+    }
+
+    private char[] _buffer = new char[16000];
+
+    /**
+     * Start of the sentence being scanned, or -1 if between sentences
+     */
+    private int _sentenceStart = -1;
+
+    /**
+     * Whether all characters of the current sentence so far are Chinese
+     */
+    private boolean _allChinese;
+
+    public void tokenize(Reader in, SentenceHandler handler) throws IOException
+    {
+        char[] buf = _buffer;
+        int pos = 0;
+        int end = 0;
+        _sentenceStart = -1;
+        while (true) {
+            int count = in.read(buf, end, buf.length - end);
+            if (count < 0) {
+                _scan(buf, pos, end, true, handler);
+                break;
+            }
+            end += count;
+            pos = _scan(buf, pos, end, false, handler);
+            int dropped = _compact(buf, pos, end);
+            end -= dropped;
+            pos -= dropped;
+            if (end == buf.length) {
+                _buffer = buf = Arrays.copyOf(buf, buf.length << 1);
+            }
+        }
+    }
+
+    /**
+     * Tokenizes encoded text that is already fully in memory, such as a mapped
+     * file range. Bytes are decoded a buffer at a time, so only the sentence
+     * being scanned is ever held as characters.
+     */
+    public void tokenize(ByteBuffer in, CharsetDecoder decoder, SentenceHandler handler) throws IOException
+    {
+        char[] buf = _buffer;
+        CharBuffer out = CharBuffer.wrap(buf);
+        int pos = 0;
+        boolean decoded = false;
+        _sentenceStart = -1;
+        decoder.reset();
+        while (true) {
+            // all input is there, so every call is the final one; more calls only add output room
+            CoderResult result = decoded ? decoder.flush(out) : decoder.decode(in, out, true);
+            if (!decoded && result.isUnderflow()) {
+                decoded = true;
+                result = decoder.flush(out);
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            int end = out.position();
+            if (decoded && result.isUnderflow()) {
+                _scan(buf, pos, end, true, handler);
+                break;
+            }
+            pos = _scan(buf, pos, end, false, handler);
+            int dropped = _compact(buf, pos, end);
+            end -= dropped;
+            pos -= dropped;
+            // a surrogate pair needs room for two characters to be decoded at all
+            if (buf.length - end < 2) {
+                _buffer = buf = Arrays.copyOf(buf, buf.length << 1);
+                out = CharBuffer.wrap(buf);
+            }
+            out.limit(buf.length).position(end);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * @return Position up to which characters were classified; less than <code>end</code>
+     *   only if the last character is a high surrogate and more input may follow
+     */
+    private int _scan(char[] buf, int pos, int end, boolean last, SentenceHandler handler) throws IOException
+    {
+        final byte[] classes = CHAR_CLASSES;
+        while (pos < end) {
+            final char c = buf[pos];
+            if (Character.isHighSurrogate(c)) {
+                if (pos + 1 == end) {
+                    if (!last) {
+                        return pos;
+                    }
+                } else if (Character.isLowSurrogate(buf[pos + 1])
+                        && _isSeparator(Character.toCodePoint(c, buf[pos + 1]))) {
+                    _endSentence(buf, pos, handler);
+                    pos += 2;
+                    continue;
+                }
+            }
+            final byte cls = classes[c];
+            if (cls == CLASS_SEPARATOR) {
+                _endSentence(buf, pos, handler);
+            } else {
+                if (_sentenceStart < 0) {
+                    _sentenceStart = pos;
+                    _allChinese = true;
+                }
+                if (cls != CLASS_CHINESE) {
+                    _allChinese = false;
+                }
+            }
+            ++pos;
+        }
+        if (last) {
+            _endSentence(buf, end, handler);
+        }
+        return end;
+    }
+
+    /**
+     * Moves the unfinished sentence (or a trailing high surrogate) to the start of
+     * the buffer, to be completed by the next round of input.
+     *
+     * @return Number of characters dropped from the start of the buffer
+     */
+    private int _compact(char[] buf, int pos, int end)
+    {
+        int keep = (_sentenceStart >= 0) ? _sentenceStart : pos;
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, end - keep);
+            if (_sentenceStart >= 0) {
+                _sentenceStart -= keep;
+            }
+        }
+        return keep;
+    }
+
+    private void _endSentence(char[] buf, int end, SentenceHandler handler) throws IOException
+    {
+        if (_sentenceStart >= 0) {
+            if (_allChinese) {
+                handler.sentence(buf, _sentenceStart, end - _sentenceStart);
+            }
+            _sentenceStart = -1;
+        }
+    }
+
+    /**
+     * Separator check for characters outside of the Basic Multilingual Plane, which are
+     * matched by code point (not by surrogate) like the regular expression does. These are
+     * rare, so no table is used.
+     */
+    private static boolean _isSeparator(int codePoint)
+    {
+        return FastBuilder.STOPWORDS_COMPILE.matcher(new String(Character.toChars(codePoint))).matches();
+    }
+}
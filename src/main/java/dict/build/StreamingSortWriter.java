@@ -0,0 +1,168 @@
+package dict.build;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.IteratingSorter;
+import com.fasterxml.sort.util.BlockingQueueReader;
+
+/**
+ * {@link DataWriter} that passes text lines through a bounded queue to an
+ * {@link IteratingSorter} running on another thread, which pre-sorts them.
+ * Producing the lines and pre-sorting them overlap, and the unsorted lines
+ * are never written to disk.
+ *<p>
+ * Closing the writer signals end of input and waits until pre-sorting is
+ * done; failures of the sorting thread are rethrown from {@link #writeEntry}
+ * or {@link #close}. Sorted lines are not written to a file at all:
+ * {@link #sortedLines} returns an Iterator over the final merge.
+ */
+public class StreamingSortWriter extends DataWriter<byte[]>
+{
+    public final static int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+    /**
+     * How long to wait for room in the queue before checking whether sorter is still running
+     */
+    private final static long OFFER_WAIT_MSECS = 100L;
+
+    /**
+     * Marker for end of input; compared by identity, so real empty lines are not mistaken for it
+     */
+    private final byte[] _endMarker = new byte[0];
+
+    private final BlockingQueue<byte[]> _queue;
+
+    /**
+     * Iterator over sorted lines, or null if sorting was cancelled
+     */
+    private final Future<Iterator<byte[]>> _result;
+
+    private boolean _closed;
+
+    /**
+     * @param sorter Sorter of lines to use (with any temporary file format); results
+     *    are read from {@link #sortedLines}, and caller needs to close sorter once done with them
+     * @param queueCapacity Maximum number of lines waiting to be sorted
+     * @param executor Executor to run the sorter on
+     */
+    public StreamingSortWriter(final IteratingSorter<byte[]> sorter, int queueCapacity, ExecutorService executor)
+    {
+        _queue = new ArrayBlockingQueue<byte[]>(queueCapacity);
+        final QueueReader reader = new QueueReader(_queue, _endMarker);
+        _result = executor.submit(new Callable<Iterator<byte[]>>() {
+            @Override
+            public Iterator<byte[]> call() throws IOException {
+                return sorter.sort(reader);
+            }
+        });
+    }
+
+    /**
+     * Signals end of input (if not done yet), waits until pre-sorting is done
+     * and returns sorted lines, merged as they are iterated.
+     */
+    public Iterator<byte[]> sortedLines() throws IOException
+    {
+        close();
+        return _await();
+    }
+
+    @Override
+    public void writeEntry(byte[] item) throws IOException
+    {
+        if (_closed) {
+            throw new IOException("Can not write using closed DataWriter");
+        }
+        _put(item);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        _put(_endMarker);
+        if (_await() == null) {
+            throw new IOException("Sorting was cancelled");
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private void _put(byte[] item) throws IOException
+    {
+        try {
+            while (!_queue.offer(item, OFFER_WAIT_MSECS, TimeUnit.MILLISECONDS)) {
+                if (_result.isDone()) {
+                    // sorter stopped before end of input; report why
+                    _await();
+                    throw new IOException("Sorter stopped before end of input");
+                }
+            }
+        } catch (InterruptedException e) {
+            _result.cancel(true);
+            InterruptedIOException ie = new InterruptedIOException();
+            ie.initCause(e);
+            throw ie;
+        }
+    }
+
+    private Iterator<byte[]> _await() throws IOException
+    {
+        try {
+            return _result.get();
+        } catch (InterruptedException e) {
+            _result.cancel(true);
+            InterruptedIOException ie = new InterruptedIOException();
+            ie.initCause(e);
+            throw ie;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    private final static class QueueReader extends BlockingQueueReader<byte[]>
+    {
+        public QueueReader(BlockingQueue<byte[]> q, byte[] endMarker) {
+            super(q, endMarker);
+        }
+
+        @Override
+        public int estimateSizeInBytes(byte[] item)
+        {
+            // same estimate as for lines read from a file
+            int bytes = item.length;
+            bytes = ((bytes + 3) >> 2) << 2;
+            return 16 + bytes;
+        }
+    }
+}
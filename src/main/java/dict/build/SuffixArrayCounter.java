@@ -0,0 +1,269 @@
+package dict.build;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.sort.DataWriter;
+
+/**
+ * {@link SentenceHandler} that collects sentences as dense character ids and
+ * computes frequency, right entropy and left entropy of every word of up to
+ * <code>maxLen - 1</code> characters from a suffix array of the whole text,
+ * instead of materializing and sorting n-grams.
+ *<p>
+ * Occurrences of a word form an interval of the suffix array in which all
+ * suffixes share the word as prefix; suffixes are in order of the character
+ * that follows the word, so right neighbors come in runs. Left neighbors are
+ * simply the characters preceding each suffix, so a single suffix array over
+ * the text gives both sides.
+ *<p>
+ * Memory needed is linear in the size of the text: about 14 bytes per
+ * character while building the suffix array.
+ */
+public class SuffixArrayCounter implements SentenceHandler
+{
+    /**
+     * Estimate of memory needed per character of text: text and suffix array,
+     * type flags, and arrays for the reduced problem of SA-IS
+     */
+    private final static int BYTES_PER_CHAR = 14;
+
+    private final CharAlphabet _alphabet;
+
+    private final int _maxLen;
+
+    private final long _maxMemory;
+
+    /**
+     * Ids of all characters, with {@link CharAlphabet#BOUNDARY} after each sentence
+     */
+    private int[] _text = new int[1 << 16];
+
+    private int _length;
+
+    public SuffixArrayCounter(CharAlphabet alphabet, int maxLen, long maxMemory)
+        throws PackedNgramTable.TableFullException
+    {
+        if (maxLen < 2) {
+            throw new IllegalArgumentException("Illegal maximum n-gram length: " + maxLen);
+        }
+        _alphabet = alphabet;
+        _maxLen = maxLen;
+        _maxMemory = maxMemory;
+        if ((long) _text.length * BYTES_PER_CHAR > maxMemory) {
+            throw new PackedNgramTable.TableFullException(maxMemory);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* SentenceHandler implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public void sentence(char[] chars, int off, int len) throws IOException
+    {
+        // one more for the boundary, and one for the final sentinel
+        long needed = (long) _length + len + 2;
+        if (needed > _text.length) {
+            long capacity = Math.max(needed, (long) _text.length << 1);
+            if (needed * BYTES_PER_CHAR > _maxMemory || needed >= Integer.MAX_VALUE - 8) {
+                throw new PackedNgramTable.TableFullException(_maxMemory);
+            }
+            capacity = Math.min(capacity, Math.min(_maxMemory / BYTES_PER_CHAR, Integer.MAX_VALUE - 8));
+            _text = Arrays.copyOf(_text, (int) capacity);
+        }
+        final int[] text = _text;
+        int ptr = _length;
+        for (int i = 0; i < len; ++i) {
+            text[ptr++] = _alphabet.id(chars[off + i]);
+        }
+        text[ptr++] = CharAlphabet.BOUNDARY;
+        _length = ptr;
+    }
+
+    /*
+    /**********************************************************************
+    /* Output
+    /**********************************************************************
+     */
+
+    /**
+     * Builds the suffix array and writes a record for every word: one with
+     * frequency and right entropy, one with left entropy only, same as
+     * {@link FastBuilder} produces. Records are written in suffix array order,
+     * so they still need to be sorted by word.
+     *
+     * @param right Writer for records with right entropy; null if not needed
+     * @param left Writer for records with left entropy; null if not needed
+     * @param minFreq Words occurring less often are left out
+     *
+     * @return Number of distinct words, including ones left out
+     */
+    public long writeRecords(DataWriter<NgramRecord> right, DataWriter<NgramRecord> left, int minFreq)
+        throws IOException
+    {
+        final int n = _length + 1;
+        final int[] text = _text;
+        // sentinel, smaller than any id
+        text[_length] = CharAlphabet.PAD;
+        final int[] sa = SuffixArrays.build(text, n, _alphabet.size());
+
+        final int maxWord = _maxLen - 1;
+        // state of the currently open interval for each word length
+        final int[] wordStart = new int[maxWord + 1];
+        final int[] freqs = new int[maxWord + 1];
+        final int[] lastNeighbor = new int[maxWord + 1];
+        final IntList[] rightRuns = new IntList[maxWord + 1];
+        final IntList[] leftNeighbors = new IntList[maxWord + 1];
+        for (int l = 1; l <= maxWord; ++l) {
+            rightRuns[l] = new IntList();
+            leftNeighbors[l] = new IntList();
+        }
+        final StringBuilder word = new StringBuilder(maxWord);
+
+        long words = 0L;
+        int prevStart = -1;
+        int prevAvail = 0;
+        for (int i = 0; i < n; ++i) {
+            final int start = sa[i];
+            final int avail = _wordChars(text, start, maxWord);
+            if (avail == 0) {
+                continue;
+            }
+            int common = 0;
+            if (prevStart >= 0) {
+                final int max = Math.min(avail, prevAvail);
+                while (common < max && text[start + common] == text[prevStart + common]) {
+                    ++common;
+                }
+            }
+            // words longer than the common prefix end here
+            for (int l = prevAvail; l > common; --l) {
+                ++words;
+                if (freqs[l] >= minFreq) {
+                    _emit(word, text, wordStart[l], l, freqs[l], rightRuns[l], leftNeighbors[l], right, left);
+                }
+            }
+            final int leftId = (start > 0) ? text[start - 1] : CharAlphabet.BOUNDARY;
+            for (int l = 1; l <= avail; ++l) {
+                final int neighbor = text[start + l];
+                if (l > common) {
+                    wordStart[l] = start;
+                    freqs[l] = 1;
+                    rightRuns[l].clear();
+                    rightRuns[l].add(1);
+                    leftNeighbors[l].clear();
+                } else {
+                    ++freqs[l];
+                    if (neighbor == lastNeighbor[l]) {
+                        rightRuns[l].incrementLast();
+                    } else {
+                        rightRuns[l].add(1);
+                    }
+                }
+                lastNeighbor[l] = neighbor;
+                leftNeighbors[l].add(leftId);
+            }
+            prevStart = start;
+            prevAvail = avail;
+        }
+        for (int l = prevAvail; l > 0; --l) {
+            ++words;
+            if (freqs[l] >= minFreq) {
+                _emit(word, text, wordStart[l], l, freqs[l], rightRuns[l], leftNeighbors[l], right, left);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * @return Number of word characters (that is, not boundaries) starting at given position,
+     *    but no more than <code>max</code>
+     */
+    private static int _wordChars(int[] text, int start, int max)
+    {
+        int count = 0;
+        while (count < max && text[start + count] > CharAlphabet.BOUNDARY) {
+            ++count;
+        }
+        return count;
+    }
+
+    private void _emit(StringBuilder word, int[] text, int start, int length, int freq,
+            IntList rightRuns, IntList leftNeighbors,
+            DataWriter<NgramRecord> right, DataWriter<NgramRecord> left)
+        throws IOException
+    {
+        word.setLength(0);
+        for (int i = 0; i < length; ++i) {
+            word.append(_alphabet.charAt(text[start + i]));
+        }
+        final String w = word.toString();
+        if (right != null) {
+            double sum = 0;
+            for (int i = 0, end = rightRuns.size(); i < end; ++i) {
+                sum += ScoringKernel.xLog2X(rightRuns.get(i));
+            }
+            right.writeEntry(new NgramRecord(w, freq, ScoringKernel.entropy(sum, freq)));
+        }
+        if (left != null) {
+            leftNeighbors.sort();
+            double sum = 0;
+            for (int i = 0, end = leftNeighbors.size(); i < end; ) {
+                int j = i + 1;
+                while (j < end && leftNeighbors.get(j) == leftNeighbors.get(i)) {
+                    ++j;
+                }
+                sum += ScoringKernel.xLog2X(j - i);
+                i = j;
+            }
+            left.writeEntry(new NgramRecord(w, 0, ScoringKernel.entropy(sum, freq)));
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Minimal growable list of ints
+     */
+    private final static class IntList
+    {
+        private int[] _values = new int[16];
+
+        private int _size;
+
+        public void add(int value)
+        {
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _size << 1);
+            }
+            _values[_size++] = value;
+        }
+
+        public void incrementLast() {
+            ++_values[_size - 1];
+        }
+
+        public int get(int index) {
+            return _values[index];
+        }
+
+        public int size() {
+            return _size;
+        }
+
+        public void clear() {
+            _size = 0;
+        }
+
+        public void sort() {
+            Arrays.sort(_values, 0, _size);
+        }
+    }
+}
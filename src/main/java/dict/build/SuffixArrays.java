@@ -0,0 +1,178 @@
+package dict.build;
+
+import java.util.Arrays;
+
+/**
+ * Construction of suffix arrays in linear time, using the SA-IS algorithm
+ * (induced sorting of LMS substrings) by Nong, Zhang and Chan.
+ */
+public class SuffixArrays
+{
+    private SuffixArrays() { }
+
+    /**
+     * Builds suffix array of the first <code>n</code> symbols of given text.
+     * Symbols must be in range <code>[0, alphabetSize)</code> and the last one
+     * (at <code>n - 1</code>) must be a 0 that occurs nowhere else, so that it
+     * is the smallest suffix.
+     *
+     * @return Array with start positions of all suffixes, in sorted order
+     */
+    public static int[] build(int[] text, int n, int alphabetSize)
+    {
+        if (n < 1 || text[n - 1] != 0) {
+            throw new IllegalArgumentException("Text must end with a unique 0 sentinel");
+        }
+        int[] sa = new int[n];
+        _sais(text, sa, n, alphabetSize);
+        return sa;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private static void _sais(int[] s, int[] sa, int n, int k)
+    {
+        if (n == 1) {
+            sa[0] = 0;
+            return;
+        }
+        // S-type (true) or L-type (false) for each position
+        final boolean[] t = new boolean[n];
+        t[n - 1] = true;
+        for (int i = n - 2; i >= 0; --i) {
+            t[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && t[i + 1]);
+        }
+        final int[] bkt = new int[k];
+
+        // 1: sort LMS substrings by induced sorting from their (unsorted) positions
+        _bucketEnds(s, n, bkt);
+        Arrays.fill(sa, -1);
+        for (int i = 1; i < n; ++i) {
+            if (_isLMS(t, i)) {
+                sa[--bkt[s[i]]] = i;
+            }
+        }
+        _induceL(s, sa, t, n, bkt);
+        _induceS(s, sa, t, n, bkt);
+
+        // 2: compact sorted LMS substrings, name them
+        int n1 = 0;
+        for (int i = 0; i < n; ++i) {
+            if (_isLMS(t, sa[i])) {
+                sa[n1++] = sa[i];
+            }
+        }
+        Arrays.fill(sa, n1, n, -1);
+        int name = 0;
+        int prev = -1;
+        for (int i = 0; i < n1; ++i) {
+            final int pos = sa[i];
+            boolean diff = false;
+            for (int d = 0; d < n; ++d) {
+                if (prev == -1 || s[pos + d] != s[prev + d] || t[pos + d] != t[prev + d]) {
+                    diff = true;
+                    break;
+                }
+                if (d > 0 && (_isLMS(t, pos + d) || _isLMS(t, prev + d))) {
+                    break;
+                }
+            }
+            if (diff) {
+                ++name;
+                prev = pos;
+            }
+            // LMS positions are at least 2 apart, so pos/2 is unique
+            sa[n1 + (pos >> 1)] = name - 1;
+        }
+        final int[] s1 = new int[n1];
+        for (int i = n - 1, j = n1 - 1; i >= n1; --i) {
+            if (sa[i] >= 0) {
+                s1[j--] = sa[i];
+            }
+        }
+
+        // 3: sort the reduced problem, recursively if names are not unique yet
+        final int[] sa1 = new int[n1];
+        if (name < n1) {
+            _sais(s1, sa1, n1, name);
+        } else {
+            for (int i = 0; i < n1; ++i) {
+                sa1[s1[i]] = i;
+            }
+        }
+
+        // 4: induce order of all suffixes from the sorted LMS suffixes
+        for (int i = 1, j = 0; i < n; ++i) {
+            if (_isLMS(t, i)) {
+                s1[j++] = i;
+            }
+        }
+        for (int i = 0; i < n1; ++i) {
+            sa1[i] = s1[sa1[i]];
+        }
+        _bucketEnds(s, n, bkt);
+        Arrays.fill(sa, -1);
+        for (int i = n1 - 1; i >= 0; --i) {
+            int j = sa1[i];
+            sa[--bkt[s[j]]] = j;
+        }
+        _induceL(s, sa, t, n, bkt);
+        _induceS(s, sa, t, n, bkt);
+    }
+
+    private static boolean _isLMS(boolean[] t, int i)
+    {
+        return i > 0 && t[i] && !t[i - 1];
+    }
+
+    private static void _bucketStarts(int[] s, int n, int[] bkt)
+    {
+        Arrays.fill(bkt, 0);
+        for (int i = 0; i < n; ++i) {
+            ++bkt[s[i]];
+        }
+        for (int c = 0, sum = 0; c < bkt.length; ++c) {
+            int count = bkt[c];
+            bkt[c] = sum;
+            sum += count;
+        }
+    }
+
+    private static void _bucketEnds(int[] s, int n, int[] bkt)
+    {
+        Arrays.fill(bkt, 0);
+        for (int i = 0; i < n; ++i) {
+            ++bkt[s[i]];
+        }
+        for (int c = 0, sum = 0; c < bkt.length; ++c) {
+            sum += bkt[c];
+            bkt[c] = sum;
+        }
+    }
+
+    private static void _induceL(int[] s, int[] sa, boolean[] t, int n, int[] bkt)
+    {
+        _bucketStarts(s, n, bkt);
+        for (int i = 0; i < n; ++i) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !t[j]) {
+                sa[bkt[s[j]]++] = j;
+            }
+        }
+    }
+
+    private static void _induceS(int[] s, int[] sa, boolean[] t, int n, int[] bkt)
+    {
+        _bucketEnds(s, n, bkt);
+        for (int i = n - 1; i >= 0; --i) {
+            int j = sa[i] - 1;
+            if (j >= 0 && t[j]) {
+                sa[--bkt[s[j]]] = j;
+            }
+        }
+    }
+}
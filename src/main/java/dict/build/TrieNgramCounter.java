@@ -0,0 +1,176 @@
+package dict.build;
+
+import java.io.IOException;
+
+import com.fasterxml.sort.DataWriter;
+
+/**
+ * Counts n-grams of up to <code>maxLen</code> characters in two {@link CharTrie}s:
+ * one over sentences followed by <code>$</code>, and one over reversed sentences
+ * (also followed by <code>$</code>). A node for a word in the first trie has the
+ * frequency of the word, and its children are the right neighbors; in the second
+ * trie, children of the reversed word are the left neighbors. So walking the tries
+ * gives frequency and both entropies directly, without sorting any n-grams.
+ *<p>
+ * Tries are shared by all threads; each thread tokenizes into a handler of its
+ * own, from {@link #newHandler}.
+ */
+public class TrieNgramCounter
+{
+    private final CharAlphabet _alphabet;
+
+    private final int _maxLen;
+
+    private final CharTrie _right;
+
+    private final CharTrie _left;
+
+    /**
+     * @param right Whether right neighbors are needed
+     * @param left Whether left neighbors are needed
+     * @param maxMemory Memory that both tries together may use
+     */
+    public TrieNgramCounter(CharAlphabet alphabet, int maxLen, boolean right, boolean left, long maxMemory)
+        throws PackedNgramTable.TableFullException
+    {
+        if (maxLen < 2) {
+            throw new IllegalArgumentException("Illegal maximum n-gram length: " + maxLen);
+        }
+        _alphabet = alphabet;
+        _maxLen = maxLen;
+        if (right && left) {
+            maxMemory >>= 1;
+        }
+        _right = right ? new CharTrie(alphabet, maxMemory) : null;
+        _left = left ? new CharTrie(alphabet, maxMemory) : null;
+    }
+
+    /**
+     * @return Handler that adds sentences to the tries; not thread-safe, so each
+     *    thread needs one of its own
+     */
+    public SentenceHandler newHandler()
+    {
+        return new SentenceHandler() {
+            private int[] _ids = new int[256];
+
+            @Override
+            public void sentence(char[] chars, int off, int len) throws IOException
+            {
+                if (_ids.length <= len) {
+                    _ids = new int[len + 1];
+                }
+                final int[] ids = _ids;
+                final int total = len + 1;
+                if (_right != null) {
+                    for (int i = 0; i < len; ++i) {
+                        ids[i] = _alphabet.id(chars[off + i]);
+                    }
+                    ids[len] = CharAlphabet.BOUNDARY;
+                    for (int i = 0; i < len; ++i) {
+                        _right.insert(ids, i, Math.min(_maxLen, total - i));
+                    }
+                }
+                if (_left != null) {
+                    for (int i = 0, j = off + len - 1; i < len; ++i, --j) {
+                        ids[i] = _alphabet.id(chars[j]);
+                    }
+                    ids[len] = CharAlphabet.BOUNDARY;
+                    for (int i = 0; i < len; ++i) {
+                        _left.insert(ids, i, Math.min(_maxLen, total - i));
+                    }
+                }
+            }
+        };
+    }
+
+    /*
+    /**********************************************************************
+    /* Output
+    /**********************************************************************
+     */
+
+    /**
+     * Writes a record for every word of up to <code>maxLen - 1</code> characters
+     * that occurs at least <code>minFreq</code> times: with frequency and right
+     * entropy to <code>right</code>, in sorted order; and with left entropy only
+     * to <code>left</code>, in order of reversed words, so these still need to be
+     * sorted.
+     *
+     * @return Number of distinct words, including ones left out
+     */
+    public long writeRecords(final DataWriter<NgramRecord> right, final DataWriter<NgramRecord> left,
+            final int minFreq)
+        throws IOException
+    {
+        // both tries have the same words, so they are counted in either
+        RecordVisitor visitor = null;
+        if (_right != null) {
+            visitor = new RecordVisitor(right, false, minFreq);
+            _right.walk(visitor, _maxLen - 1);
+        }
+        if (_left != null) {
+            RecordVisitor leftVisitor = new RecordVisitor(left, true, minFreq);
+            _left.walk(leftVisitor, _maxLen - 1);
+            if (visitor == null) {
+                visitor = leftVisitor;
+            }
+        }
+        return (visitor == null) ? 0L : visitor._words;
+    }
+
+    /**
+     * @return Memory used by the tries
+     */
+    public long memory() {
+        return ((_right == null) ? 0L : _right.memory()) + ((_left == null) ? 0L : _left.memory());
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    private final class RecordVisitor implements CharTrie.Visitor
+    {
+        private final DataWriter<NgramRecord> _out;
+
+        private final boolean _reversed;
+
+        private final int _minFreq;
+
+        private final StringBuilder _word = new StringBuilder();
+
+        /**
+         * Number of words visited, including ones left out
+         */
+        long _words;
+
+        RecordVisitor(DataWriter<NgramRecord> out, boolean reversed, int minFreq)
+        {
+            _out = out;
+            _reversed = reversed;
+            _minFreq = minFreq;
+        }
+
+        @Override
+        public boolean node(int[] path, int depth, int count, int[] childCounts, int children)
+            throws IOException
+        {
+            ++_words;
+            // longer words are no more frequent than this one, but still need to be counted
+            if (count < _minFreq) {
+                return true;
+            }
+            final double entropy = ScoringKernel.entropy(childCounts, 0, children, count);
+            final StringBuilder word = _word;
+            word.setLength(0);
+            for (int i = 0; i < depth; ++i) {
+                word.append(_alphabet.charAt(path[_reversed ? depth - 1 - i : i]));
+            }
+            _out.writeEntry(new NgramRecord(word.toString(), _reversed ? 0 : count, entropy));
+            return true;
+        }
+    }
+}